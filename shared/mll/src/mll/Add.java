@@ -1,9 +1,5 @@
 package mll;
 
-import java.io.IOException;
-import java.io.Writer;
-import java.util.HashMap;
-
 public class Add extends BinOp {
     Add(Op lhs, Op rhs) { super(lhs, rhs); }
 
@@ -35,19 +31,12 @@ public class Add extends BinOp {
         if (reassoc != null) return reassoc;
 
         // END_SOLUTION
-        return dag.unify(new Add(x, y));
+        return dag.unify(Kind.Add, x, y);
     }
 
+    @Override Kind kind() { return Kind.Add; }
     @Override public String opString() { return "+"; }
     @Override protected double eval_(double[] inVals) { return inVals[0] + inVals[1]; }
 
-    @Override protected String llvm_(HashMap<Op, String> map, Writer writer) throws IOException {
-        var l = lhs().llvm(map, writer);
-        var r = rhs().llvm(map, writer);
-        var x = String.format("%%_%d", id());
-        writer.append(String.format("\t%s = fadd double %s, %s\n", x, l, r));
-        return x;
-    }
-
     @Override protected Op diff(int inputIdx) { return lit1(); }
 }
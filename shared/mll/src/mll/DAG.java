@@ -1,18 +1,132 @@
 package mll;
 
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DAG {
-    private int             id_  = 0;
-    private HashMap<Op, Op> ops_ = new HashMap<Op, Op>();
+    private static final int STRIPES      = 64;
+    private static final int STRIPE_SHIFT = 32 - Integer.numberOfTrailingZeros(STRIPES);
 
-    /// Start over and forget everything.
+    private final boolean       concurrent_;
+    private final AtomicInteger id_ = new AtomicInteger();
+    private Nodes               nodes_;
+    private Table[]             ops_;
+
+    public DAG() { this(false); }
+
+    /// A @p concurrent DAG may be built into from several threads at once:
+    /// The intern table is split into lock-striped parts and IDs are allocated atomically.
+    /// Structurally equal Ops are still unique and IDs stay dense.
+    @SuppressWarnings("this-escape") // Nodes only keeps the reference for Op.dag()
+    public DAG(boolean concurrent) {
+        concurrent_ = concurrent;
+        nodes_      = new Nodes(this);
+        ops_        = newTables();
+    }
+
+    public boolean isConcurrent() { return concurrent_; }
+
+    /// Start over and forget everything. Ops built so far can still be evaluated, printed, and so on, but they must
+    /// not be combined with new ones: Their IDs start over, too, so building on one is an IllegalArgumentException.
+    /// Not thread-safe - not even for a concurrent DAG.
     public void clear() {
-        id_ = 0;
-        ops_.clear();
+        id_.set(0);
+        nodes_ = new Nodes(this);
+        ops_   = newTables();
+    }
+
+    /// Number of distinct Ops built so far.
+    public int size() {
+        int res = 0;
+        for (var table : ops_) {
+            if (!concurrent_) {
+                res += table.size();
+            } else {
+                synchronized (table) {
+                    res += table.size();
+                }
+            }
+        }
+        return res;
     }
 
-    public Var var(String name) { return (Var) unify(new Var(this, name)); }
+    /// Same as collect(true, @p roots).
+    public int collect(Op... roots) { return collect(true, roots); }
+
+    /// Mark and sweep: Keeps only the Ops reachable from @p roots - including the Var%s of a Grad - and forgets all
+    /// others, so they may be garbage collected. Returns the number of Ops removed.
+    /// With @p renumber, the live Ops get dense IDs `0 .. size() - 1` in their former order and the node storage
+    /// shrinks to fit; otherwise IDs stay as they are, but the node storage keeps growing with each new Op.
+    /// Live Ops stay valid, but Ops not reachable from @p roots must not be used anymore; after renumbering, building
+    /// on one is an IllegalArgumentException, just like for an Op from before clear().
+    /// Not thread-safe - not even for a concurrent DAG.
+    public int collect(boolean renumber, Op... roots) {
+        int n    = id_.get();
+        var live = mark(roots);
+
+        if (renumber) {
+            // inputs always have smaller IDs than their users, so one ascending pass can remap everything
+            var old   = nodes_;
+            var remap = new int[n];
+            int next  = 0;
+            nodes_ = new Nodes(this);
+            for (int id = live.nextSetBit(0); id >= 0; id = live.nextSetBit(id + 1)) {
+                var op = old.op(id);
+                remap[id] = next;
+                nodes_.copy(next, op, old, remap);
+                op.moveTo(nodes_, next++);
+            }
+            id_.set(next);
+            live.clear();
+            live.set(0, next);
+        } else {
+            for (int id = live.nextClearBit(0); id < n; id = live.nextClearBit(id + 1)) nodes_.clear(id);
+        }
+
+        ops_ = newTables();
+        for (int id = live.nextSetBit(0); id >= 0; id = live.nextSetBit(id + 1)) {
+            var op = nodes_.op(id);
+            int hash = op.hashCode();
+            table(hash).insert(hash, op);
+        }
+        return n - live.cardinality();
+    }
+
+    /// IDs of all Ops reachable from @p roots.
+    private static BitSet mark(Op[] roots) {
+        var live  = new BitSet();
+        var stack = new ArrayDeque<Op>();
+        for (var root : roots) {
+            if (live.get(root.id())) continue;
+            live.set(root.id());
+            stack.push(root);
+        }
+        while (!stack.isEmpty()) {
+            var op = stack.pop();
+            for (int i = 0, e = op.numInputs(); i != e; ++i) {
+                var input = op.input(i);
+                if (!live.get(input.id())) {
+                    live.set(input.id());
+                    stack.push(input);
+                }
+            }
+            if (op instanceof Grad grad) {
+                for (var var : grad.vars()) {
+                    if (!live.get(var.id())) {
+                        live.set(var.id());
+                        stack.push(var);
+                    }
+                }
+            }
+        }
+        return live;
+    }
+
+    public Var var(String name) {
+        int hash = hash(hash(Kind.Var), name.hashCode());
+        return (Var) unify(hash, Kind.Var, null, null, 0, name, null, this);
+    }
 
     public Var x() { return var("x"); }
     public Var y() { return var("y"); }
@@ -20,21 +134,220 @@ public class DAG {
 
     public Lit lit(double f) {
         if (f == -0.f) f = 0.f; // ignore -0.f
-        return (Lit) unify(new Lit(this, f));
+        long bits = Double.doubleToLongBits(f);
+        int  hash = hash(hash(Kind.Lit), bits);
+        return (Lit) unify(hash, Kind.Lit, null, null, bits, null, null, this);
     }
 
     public Lit lit0() { return lit(0.f); }
     public Lit lit1() { return lit(1.f); }
     public Lit lit2() { return lit(2.f); }
 
-    int nextID() { return id_++; }
+    /// Adds the Op described by these parts as is: no factory, so no simplification, and no lookup, so it must not be
+    /// in the DAG yet. Parts are as for make(). Only for loading Ops that were already unique when saved - see DAGFile.
+    Op restore(Kind kind, Op x, Op y, long bits, String name, Op[] inputs, Object extra) {
+        int hash = switch (kind) {
+            case Lit -> hash(hash(kind), bits);
+            case Var -> hash(hash(kind), name.hashCode());
+            case Grad, Sum, Product -> {
+                int h = hash(kind);
+                for (var input : inputs) h = hash(h, own(input).id());
+                yield h;
+            }
+            case Fma -> hash(hash(hash(hash(kind), own(x).id()), own(y).id()), own((Op) extra).id());
+            default -> y == null ? hash(hash(kind), own(x).id()) : hash(hash(hash(kind), own(x).id()), own(y).id());
+        };
+        var op    = make(kind, x, y, bits, name, inputs, extra);
+        var table = table(hash);
+        if (!concurrent_) {
+            table.insert(hash, op);
+        } else {
+            synchronized (table) {
+                table.insert(hash, op);
+            }
+        }
+        return op;
+    }
+
+    /// Sizes the intern table for @p n more Ops, so adding them never needs to grow it.
+    /// Not thread-safe - not even for a concurrent DAG.
+    void reserve(int n) {
+        for (var table : ops_) table.reserve(table.size() + Math.ceilDiv(n, ops_.length));
+    }
+
+    int nextID() { return id_.getAndIncrement(); }
+    Nodes nodes() { return nodes_; }
+
+    /*
+     * hash-consing
+     */
+
+    /// Unifies the UnOp @p kind of @p x.
+    Op unify(Kind kind, Op x) {
+        int hash = hash(hash(kind), own(x).id());
+        return unify(hash, kind, x, null, 0, null, null, this);
+    }
+
+    /// Unifies the BinOp @p kind of @p x and @p y.
+    Op unify(Kind kind, Op x, Op y) {
+        int hash = hash(hash(hash(kind), own(x).id()), own(y).id());
+        return unify(hash, kind, x, y, 0, null, null, this);
+    }
+
+    /// Unifies the Fma `x * y + z`; @p z goes in as `extra` as there are only two slots per Op in Nodes.
+    Op unify(Op x, Op y, Op z) {
+        int hash = hash(hash(hash(hash(Kind.Fma), own(x).id()), own(y).id()), own(z).id());
+        return unify(hash, Kind.Fma, x, y, 0, null, null, z);
+    }
+
+    /// Unifies the n-ary Sum or Product @p kind of @p inputs, which must already be canonical.
+    Op unify(Kind kind, Op[] inputs) {
+        int hash = hash(kind);
+        for (var input : inputs) hash = hash(hash, own(input).id());
+        return unify(hash, kind, null, null, 0, null, inputs, null);
+    }
+
+    Grad unify(Op[] inputs, Var[] vars) {
+        int hash = hash(Kind.Grad);
+        for (var input : inputs) hash = hash(hash, own(input).id());
+        for (var var : vars) own(var);
+        return (Grad) unify(hash, Kind.Grad, null, null, 0, null, inputs, vars);
+    }
+
+    private Op unify(int hash, Kind kind, Op x, Op y, long bits, String name, Op[] inputs, Object extra) {
+        var table = table(hash);
+        if (!concurrent_) return table.unify(hash, kind, x, y, bits, name, inputs, extra);
+        synchronized (table) {
+            return table.unify(hash, kind, x, y, bits, name, inputs, extra);
+        }
+    }
+
+    /// Inputs are resolved by ID in the current Nodes, so an Op from another DAG - or from before clear() or a
+    /// renumbering collect() - would silently stand for whatever Op has its ID here.
+    private Op own(Op op) {
+        if (op.nodes() != nodes_) throw new IllegalArgumentException(op.kind() + " " + op.id() + " is not part of this DAG (anymore)");
+        return op;
+    }
+
+    /// Picks the stripe by the high bits of another mix than the one Table uses for its slots.
+    private Table table(int hash) { return ops_.length == 1 ? ops_[0] : ops_[(hash * 0x9e3779b9) >>> STRIPE_SHIFT]; }
+
+    private Table[] newTables() {
+        var tables = new Table[concurrent_ ? STRIPES : 1];
+        for (int i = 0, e = tables.length; i != e; ++i) tables[i] = new Table(nodes_);
+        return tables;
+    }
+
+    /// Only invoked on a miss in the intern table, so only Ops that are really new get an ID.
+    /// @p extra is `this` DAG for Vars and Lits, the Var%s for a Grad, and the addend of an Fma.
+    private static Op make(Kind kind, Op x, Op y, long bits, String name, Op[] inputs, Object extra) {
+        return switch (kind) {
+            case Lit -> new Lit((DAG) extra, Double.longBitsToDouble(bits));
+            case Var -> new Var((DAG) extra, name);
+            case Add -> new Add(x, y);
+            case Sub -> new Sub(x, y);
+            case Mul -> new Mul(x, y);
+            case Div -> new Div(x, y);
+            case Pow -> new Pow(x, y);
+            case Neg -> new Neg(x);
+            case Exp -> new Exp(x);
+            case Log -> new Log(x);
+            case Sin -> new Sin(x);
+            case Cos -> new Cos(x);
+            case Grad -> new Grad(inputs, (Var[]) extra);
+            case Fma -> new Fma(x, y, (Op) extra);
+            case Sum -> new Sum(inputs);
+            case Product -> new Product(inputs);
+        };
+    }
+
+    /// Same hash as Op.hashCode() of the Op described by these parts - without boxing.
+    static int hash(Kind kind) { return kind.ordinal() + 1; }
+    static int hash(int hash, int x) { return 31 * hash + x; }
+    static int hash(int hash, long x) { return hash(hash, Long.hashCode(x)); }
+
+    /// Open-addressing (linear probing) table of Ops keyed by (Kind, input ids, literal bits or Var name).
+    /// The key is passed in parts and compared against the Nodes, so a lookup that hits doesn't allocate anything.
+    /// Each slot packs the spread hash - high word - with `id + 1` - low word, 0 is empty - so a probe touches one
+    /// long, mismatches mostly skip matches(), and growing never needs the Nodes.
+    /// Not thread-safe by itself; a concurrent DAG locks the Table for each access.
+    private static final class Table {
+        private final Nodes nodes_;
+        private long[]      slots_ = new long[16];
+        private int         size_  = 0;
+
+        Table(Nodes nodes) { nodes_ = nodes; }
+
+        int size() { return size_; }
+
+        Op unify(int hash, Kind kind, Op x, Op y, long bits, String name, Op[] inputs, Object extra) {
+            int mask = slots_.length - 1;
+            int h    = spread(hash);
+            int i    = h & mask;
+            for (long slot; (slot = slots_[i]) != 0; i = (i + 1) & mask) {
+                if ((int) (slot >>> 32) == h && matches((int) slot - 1, kind, x, y, bits, name, inputs, extra))
+                    return nodes_.op((int) slot - 1);
+            }
+
+            var op = make(kind, x, y, bits, name, inputs, extra);
+            slots_[i] = slot(h, op.id());
+            if (++size_ * 2 > slots_.length) grow();
+            return op;
+        }
+
+        /// Adds @p op with the given @p hash, which must not be in the Table yet.
+        void insert(int hash, Op op) {
+            int mask = slots_.length - 1;
+            int h    = spread(hash);
+            int i    = h & mask;
+            while (slots_[i] != 0) i = (i + 1) & mask;
+            slots_[i] = slot(h, op.id());
+            if (++size_ * 2 > slots_.length) grow();
+        }
+
+        /// Grows until @p n entries fit.
+        void reserve(int n) {
+            while ((long) n * 2 > slots_.length) grow();
+        }
+
+        private static long slot(int h, int id) { return ((long) h << 32) | (id + 1L); }
+
+        private boolean matches(int id, Kind kind, Op x, Op y, long bits, String name, Op[] inputs, Object extra) {
+            if (nodes_.kind(id) != kind) return false;
+            return switch (kind) {
+                case Lit -> nodes_.bits(id) == bits;
+                case Var -> ((Var) nodes_.op(id)).name().equals(name);
+                case Grad, Sum, Product -> {
+                    var op = nodes_.op(id);
+                    if (op.numInputs() != inputs.length) yield false;
+                    for (int i = 0, e = inputs.length; i != e; ++i)
+                        if (op.input(i) != inputs[i]) yield false;
+                    yield true;
+                }
+                case Fma -> nodes_.a(id) == x.id() && nodes_.b(id) == y.id() && nodes_.op(id).input(2) == extra;
+                default -> nodes_.a(id) == x.id() && nodes_.b(id) == (y != null ? y.id() : -1);
+            };
+        }
+
+        private void grow() {
+            var slots = slots_;
+            slots_ = new long[slots.length * 2];
+            int mask = slots_.length - 1;
+            for (long slot : slots) {
+                if (slot == 0) continue;
+                int i = (int) (slot >>> 32) & mask;
+                while (slots_[i] != 0) i = (i + 1) & mask;
+                slots_[i] = slot;
+            }
+        }
 
-    Op unify(Op key) {
-        if (ops_.containsKey(key)) {
-            id_--;
-            return ops_.get(key);
+        /// Murmur3 finalizer: Op hashes are sums of small ids, so spread them before masking.
+        private static int spread(int h) {
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            return h ^ (h >>> 16);
         }
-        ops_.put(key, key);
-        return key;
     }
 }
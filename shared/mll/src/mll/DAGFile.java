@@ -0,0 +1,206 @@
+package mll;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/// Versioned binary format for the Op%s reachable from a set of roots.
+///
+/// Rebuilding an expression via the factories re-runs all of their simplifications, which adds up for large
+/// gradients. A DAGFile instead stores each Op exactly as it is, so loading it just recreates the nodes.
+/// Layout - all little-endian:
+/// ```
+/// header = MAGIC VERSION numNodes numRoots        (4 x int)
+/// node   = kind:byte payload                      (numNodes times, inputs before their users)
+/// roots  = id...                                  (numRoots x int)
+/// ```
+/// The payload is the Lit's bits as a long, the Var's name as int length plus UTF-8 bytes, the one, two, or three
+/// input IDs of an UnOp, BinOp, or Fma, and count plus IDs for a Sum or Product. A Grad holds its inputs like that,
+/// followed by its Var%s like that. IDs refer to the position in the file, so they are dense regardless of the
+/// IDs in the saved DAG.
+///
+/// Both directions memory-map the file. Loading into an empty DAG skips hash-consing lookups altogether, since the
+/// saved Ops were unique already; loading into a DAG with Ops unifies with them instead.
+public final class DAGFile {
+    static final int MAGIC   = 0x444c4c4d; // "MLLD"
+    /// Bump whenever the layout - or Kind, whose ordinals are the kind bytes - changes.
+    static final int VERSION = 1;
+
+    private static final int HEADER = 4 * Integer.BYTES;
+    private static final int RECORD = 1 + Integer.BYTES; // smallest node: kind plus one input ID, length, or count
+
+    private DAGFile() {}
+
+    /// Saves all Ops reachable from @p roots, which must share a DAG, to @p file.
+    public static void save(Path file, Op... roots) throws IOException {
+        if (roots.length == 0) throw new IllegalArgumentException("nothing to save");
+        // inputs always have smaller IDs than their users, so ascending IDs are a topological order
+        var live  = new BitSet();
+        var order = Op.topo(roots);
+        for (var op : order) {
+            live.set(op.id());
+            if (op instanceof Grad grad)
+                for (var var : grad.vars()) live.set(var.id());
+        }
+        var dag   = roots[0].dag();
+        var nodes = new Op[live.cardinality()];
+        var remap = new int[live.length()];
+        long size = HEADER + (long) roots.length * Integer.BYTES;
+        var names = new byte[nodes.length][];
+        for (int id = live.nextSetBit(0), k = 0; id >= 0; id = live.nextSetBit(id + 1), ++k) {
+            var op = dag.nodes().op(id);
+            nodes[k]  = op;
+            remap[id] = k;
+            if (op instanceof Var var) names[k] = var.name().getBytes(StandardCharsets.UTF_8);
+            size += size(op, names[k]);
+        }
+        if (size > Integer.MAX_VALUE) throw new IOException(file + ": too large");
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            var buf = map.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(nodes.length).putInt(roots.length);
+            for (int k = 0; k != nodes.length; ++k) {
+                var op = nodes[k];
+                buf.put((byte) op.kind().ordinal());
+                switch (op.kind()) {
+                    case Lit -> buf.putLong(Double.doubleToLongBits(((Lit) op).get()));
+                    case Var -> buf.putInt(names[k].length).put(names[k]);
+                    case Grad, Sum, Product -> {
+                        buf.putInt(op.numInputs());
+                        for (int i = 0, e = op.numInputs(); i != e; ++i) buf.putInt(remap[op.input(i).id()]);
+                        if (op instanceof Grad grad) {
+                            buf.putInt(grad.vars().length);
+                            for (var var : grad.vars()) buf.putInt(remap[var.id()]);
+                        }
+                    }
+                    default -> {
+                        for (int i = 0, e = op.numInputs(); i != e; ++i) buf.putInt(remap[op.input(i).id()]);
+                    }
+                }
+            }
+            for (var root : roots) buf.putInt(remap[root.id()]);
+            map.force();
+        }
+    }
+
+    /// Loads the roots saved in @p file into a new DAG.
+    public static Op[] load(Path file) throws IOException { return load(new DAG(), file); }
+
+    /// Loads the roots saved in @p file into @p dag.
+    /// A truncated or otherwise corrupt @p file is an IOException; counts and lengths are checked against the rest
+    /// of the file before anything is allocated for them.
+    /// Not thread-safe if @p dag is still empty - not even for a concurrent DAG.
+    public static Op[] load(DAG dag, Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException(file + ": too large");
+            var buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            try {
+                return load(dag, file, buf);
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException
+                    | ClassCastException | IllegalArgumentException e) {
+                throw new IOException(file + ": corrupt", e);
+            }
+        }
+    }
+
+    private static Op[] load(DAG dag, Path file, ByteBuffer buf) throws IOException {
+        if (buf.limit() < HEADER || buf.getInt() != MAGIC) throw new IOException(file + ": not a DAGFile");
+        int version = buf.getInt();
+        if (version != VERSION) throw new IOException(file + ": version " + version + " instead of " + VERSION);
+        int numNodes = buf.getInt();
+        int numRoots = buf.getInt();
+        if (numNodes < 0 || numRoots < 0
+                || (long) numNodes * RECORD + (long) numRoots * Integer.BYTES > buf.remaining())
+            throw new IOException(file + ": corrupt");
+
+        boolean fresh = dag.size() == 0; // nothing to unify with
+        if (fresh) dag.reserve(numNodes);
+        var nodes = new Op[numNodes];
+        for (int k = 0; k != numNodes; ++k) {
+            var kind = Kind.VALUES[buf.get()];
+            nodes[k] = switch (kind) {
+                case Lit -> {
+                    long bits = buf.getLong();
+                    yield fresh ? dag.restore(kind, null, null, bits, null, null, dag)
+                            : dag.lit(Double.longBitsToDouble(bits));
+                }
+                case Var -> {
+                    var name = new byte[count(buf, 1)];
+                    buf.get(name);
+                    var str = new String(name, StandardCharsets.UTF_8);
+                    yield fresh ? dag.restore(kind, null, null, 0, str, null, dag) : dag.var(str);
+                }
+                case Neg, Exp, Log, Sin, Cos -> {
+                    var x = input(nodes, k, buf);
+                    yield fresh ? dag.restore(kind, x, null, 0, null, null, null) : dag.unify(kind, x);
+                }
+                case Add, Sub, Mul, Div, Pow -> {
+                    var x = input(nodes, k, buf);
+                    var y = input(nodes, k, buf);
+                    yield fresh ? dag.restore(kind, x, y, 0, null, null, null) : dag.unify(kind, x, y);
+                }
+                case Fma -> {
+                    var x = input(nodes, k, buf);
+                    var y = input(nodes, k, buf);
+                    var z = input(nodes, k, buf);
+                    yield fresh ? dag.restore(kind, x, y, 0, null, null, z) : dag.unify(x, y, z);
+                }
+                case Sum, Product -> {
+                    var inputs = inputs(nodes, k, buf);
+                    yield fresh ? dag.restore(kind, null, null, 0, null, inputs, null) : dag.unify(kind, inputs);
+                }
+                case Grad -> {
+                    var inputs = inputs(nodes, k, buf);
+                    var ids    = inputs(nodes, k, buf);
+                    var vars   = new Var[ids.length];
+                    for (int i = 0, e = ids.length; i != e; ++i) vars[i] = (Var) ids[i];
+                    yield fresh ? dag.restore(kind, null, null, 0, null, inputs, vars) : dag.unify(inputs, vars);
+                }
+            };
+        }
+
+        var roots = new Op[numRoots];
+        for (int i = 0; i != numRoots; ++i) roots[i] = input(nodes, numNodes, buf);
+        return roots;
+    }
+
+    /// Reads the ID of an input of node @p k, which must come before it.
+    private static Op input(Op[] nodes, int k, ByteBuffer buf) {
+        int id = buf.getInt();
+        if (id < 0 || id >= k) throw new IllegalArgumentException("input " + id + " of node " + k + " out of order");
+        return nodes[id];
+    }
+
+    /// Reads a count and that many inputs of node @p k.
+    private static Op[] inputs(Op[] nodes, int k, ByteBuffer buf) {
+        var res = new Op[count(buf, Integer.BYTES)];
+        for (int i = 0, e = res.length; i != e; ++i) res[i] = input(nodes, k, buf);
+        return res;
+    }
+
+    /// Reads a count of items with @p size bytes each, which must still fit into @p buf.
+    private static int count(ByteBuffer buf, int size) {
+        int n = buf.getInt();
+        if (n < 0 || n > buf.remaining() / size) throw new IllegalArgumentException("count " + n + " out of range");
+        return n;
+    }
+
+    /// Bytes of the record of @p op, whose UTF-8 @p name is only given for a Var.
+    private static long size(Op op, byte[] name) {
+        return 1 + switch (op.kind()) {
+            case Lit -> Long.BYTES;
+            case Var -> Integer.BYTES + name.length;
+            case Sum, Product -> Integer.BYTES * (1L + op.numInputs());
+            case Grad -> Integer.BYTES * (2L + op.numInputs() + ((Grad) op).vars().length);
+            default -> Integer.BYTES * (long) op.numInputs();
+        };
+    }
+}
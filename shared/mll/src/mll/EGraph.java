@@ -0,0 +1,344 @@
+package mll;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+/// Equality saturation: Finds the cheapest Op equivalent to a given one.
+///
+/// The factories apply their rules greedily while an Op is being built, so whether `a*b + a*c` gets factored or
+/// Lits cluster depends on the construction order. An EGraph instead keeps *all* equivalent forms it discovers:
+/// Each e-class is a set of e-nodes known to be equal and each e-node is a Kind applied to e-classes.
+/// Rewrite rules only ever add e-nodes and merge e-classes until nothing changes anymore (saturation) or the node
+/// budget is exhausted. Then the cheapest e-node per e-class according to PassManager.cost(Kind) is extracted.
+///
+/// The rules are commutativity and associativity of Add and Mul, factoring out common factors, identities, Sub as
+/// Add of a Neg, Neg as multiplication by -1, Div as Mul with a reciprocal, combining powers of the same base, and
+/// constant folding. Like PassManager.expLog, they assume real arithmetic, e.g. `x / x = 1` and `0 * x = 0`.
+public final class EGraph {
+    public static final int  DEFAULT_BUDGET = 5_000;
+    private static final int MAX_ITERATIONS = 16;
+
+    /// @p a and @p b are e-classes or -1; @p leaf is the Lit or Var for a leaf.
+    private record ENode(Kind kind, int a, int b, Op leaf) {}
+
+    private final DAG                         dag_;
+    private final HashMap<ENode, Integer>     memo_   = new HashMap<>();
+    private final ArrayList<ArrayList<ENode>> nodes_  = new ArrayList<>(); // per e-class; only valid for roots
+    private final ArrayList<Lit>              lits_   = new ArrayList<>(); // constant value per e-class or null
+    private int[]                             parent_ = new int[64];       // union-find
+    private int                               numNodes_;
+    private int                               budget_ = Integer.MAX_VALUE;
+
+    private EGraph(DAG dag) { dag_ = dag; }
+
+    public static Op optimize(Op root) { return optimize(root, DEFAULT_BUDGET); }
+
+    /// Saturates an EGraph built from @p root with at most about @p budget e-nodes and extracts the cheapest Op.
+    /// The result is never more expensive than @p root according to PassManager.cost(Op).
+    /// A Grad root is optimized output by output; the outputs share all common e-classes.
+    public static Op optimize(Op root, int budget) {
+        var egraph = new EGraph(root.dag());
+        var order  = root.topo();
+        int maxID  = 0;
+        for (var op : order) maxID = Math.max(maxID, op.id());
+
+        var cls = new int[maxID + 1];
+        for (var op : order) {
+            if (op instanceof Grad) continue;
+            if (op instanceof Fma) { // no ternary e-nodes: x * y + z, extracted as such - run optimize() to fuse it
+                int m = egraph.add(Kind.Mul, cls[op.input(0).id()], cls[op.input(1).id()]);
+                cls[op.id()] = egraph.add(Kind.Add, m, cls[op.input(2).id()]);
+                continue;
+            }
+            if (op instanceof NaryOp) { // nor n-ary ones: a chain of Adds or Muls, associativity does the rest
+                var kind = op instanceof Sum ? Kind.Add : Kind.Mul;
+                int c    = cls[op.input(0).id()];
+                for (int i = 1, e = op.numInputs(); i != e; ++i) c = egraph.add(kind, c, cls[op.input(i).id()]);
+                cls[op.id()] = c;
+                continue;
+            }
+            int a = op.numInputs() > 0 ? cls[op.input(0).id()] : -1;
+            int b = op.numInputs() > 1 ? cls[op.input(1).id()] : -1;
+            cls[op.id()] = egraph.add(new ENode(op.kind(), a, b, op.numInputs() == 0 ? op : null));
+        }
+
+        egraph.budget_ = Math.max(budget, 2 * egraph.numNodes_);
+        egraph.saturate();
+
+        var outs = root instanceof Grad ? root.inputs() : new Op[] { root };
+        var res  = new Op[outs.length];
+        var ops  = new HashMap<Integer, Op>();
+        var best = egraph.choose();
+        for (int i = 0, e = outs.length; i != e; ++i) res[i] = egraph.extract(cls[outs[i].id()], best, ops);
+        var opt  = root instanceof Grad grad ? Grad.c(res, grad.vars()) : res[0];
+        return PassManager.cost(opt) < PassManager.cost(root) ? opt : root;
+    }
+
+    /*
+     * union-find
+     */
+
+    private int find(int c) {
+        int root = c;
+        while (parent_[root] != root) root = parent_[root];
+        while (parent_[c] != root) { // path compression
+            int next = parent_[c];
+            parent_[c] = root;
+            c = next;
+        }
+        return root;
+    }
+
+    /// Merges the e-classes of @p a and @p b; returns whether they were different.
+    private boolean union(int a, int b) {
+        a = find(a);
+        b = find(b);
+        if (a == b) return false;
+        if (nodes_.get(a).size() < nodes_.get(b).size()) { // keep the bigger one
+            int t = a;
+            a = b;
+            b = t;
+        }
+        parent_[b] = a;
+        nodes_.get(a).addAll(nodes_.get(b));
+        nodes_.set(b, null);
+        if (lits_.get(a) == null) lits_.set(a, lits_.get(b));
+        return true;
+    }
+
+    private ENode canonical(ENode n) {
+        if (n.a() < 0) return n;
+        return new ENode(n.kind(), find(n.a()), n.b() < 0 ? -1 : find(n.b()), null);
+    }
+
+    /// The e-class of @p n - possibly a new one - or -1 if that would exceed the budget.
+    private int add(ENode n) {
+        n = canonical(n);
+        var c = memo_.get(n);
+        if (c != null) return find(c);
+        if (numNodes_ >= budget_) return -1;
+
+        int id = nodes_.size();
+        if (id == parent_.length) parent_ = Arrays.copyOf(parent_, id * 2);
+        parent_[id] = id;
+        var list = new ArrayList<ENode>();
+        list.add(n);
+        nodes_.add(list);
+        lits_.add(n.leaf() instanceof Lit lit ? lit : null);
+        memo_.put(n, id);
+        ++numNodes_;
+        return id;
+    }
+
+    private int add(Kind kind, int a, int b) { return a < 0 || b < 0 ? -1 : add(new ENode(kind, a, b, null)); }
+    private int add(Kind kind, int a) { return a < 0 ? -1 : add(new ENode(kind, a, -1, null)); }
+    private int lit(double f) { return add(new ENode(Kind.Lit, -1, -1, dag_.lit(f))); }
+
+    /// The constant value of e-class @p c or null.
+    private Lit constant(int c) { return lits_.get(find(c)); }
+
+    private boolean is(int c, double f) { return Lit.is(constant(c), f); }
+
+    /// Restores the invariant that congruent e-nodes - same Kind and same e-classes - are in the same e-class.
+    private void rebuild() {
+        for (;;) {
+            memo_.clear();
+            var merges = new ArrayList<int[]>();
+            for (int c = 0, e = nodes_.size(); c != e; ++c) {
+                if (find(c) != c) continue;
+                var set = new LinkedHashSet<ENode>();
+                for (var n : nodes_.get(c)) set.add(canonical(n));
+                nodes_.set(c, new ArrayList<>(set));
+                for (var n : set) {
+                    var prev = memo_.putIfAbsent(n, c);
+                    if (prev != null && prev != c) merges.add(new int[] { prev, c });
+                }
+            }
+            if (merges.isEmpty()) return;
+            for (var m : merges) union(m[0], m[1]);
+        }
+    }
+
+    /*
+     * saturation
+     */
+
+    private void saturate() {
+        for (int i = 0; i != MAX_ITERATIONS && numNodes_ < budget_; ++i) {
+            int  before = numNodes_;
+            long unions = 0;
+            for (int c = 0, e = nodes_.size(); c != e && numNodes_ < budget_; ++c) {
+                if (find(c) != c) continue;
+                for (var n : new ArrayList<>(nodes_.get(find(c)))) unions += apply(find(c), n);
+            }
+            rebuild();
+            if (numNodes_ == before && unions == 0) return; // saturated
+        }
+    }
+
+    /// Applies all rules to e-node @p n of e-class @p c and returns the number of e-classes merged.
+    private int apply(int c, ENode n) {
+        int res = 0;
+        int a   = n.a() < 0 ? -1 : find(n.a());
+        int b   = n.b() < 0 ? -1 : find(n.b());
+
+        res += fold(c, n.kind(), a, b);
+        switch (n.kind()) {
+            case Add -> {
+                res += merge(c, add(Kind.Add, b, a)); // commutativity
+                for (var m : nodes(a)) // associativity: (p + q) + b = p + (q + b)
+                    if (m.kind() == Kind.Add) res += merge(c, add(Kind.Add, m.a(), add(Kind.Add, m.b(), b)));
+                if (is(a, 0.0)) res += merge(c, b);
+                if (a == b) res += merge(c, add(Kind.Mul, lit(2.0), a));
+                for (var m : nodes(a)) { // factoring: p * q + p * s = p * (q + s)
+                    if (m.kind() != Kind.Mul) continue;
+                    for (var k : nodes(b)) {
+                        if (k.kind() != Kind.Mul) continue;
+                        if (find(m.a()) == find(k.a()))
+                            res += merge(c, add(Kind.Mul, m.a(), add(Kind.Add, m.b(), k.b())));
+                        if (find(m.b()) == find(k.b()))
+                            res += merge(c, add(Kind.Mul, add(Kind.Add, m.a(), k.a()), m.b()));
+                    }
+                }
+            }
+            case Mul -> {
+                res += merge(c, add(Kind.Mul, b, a)); // commutativity
+                for (var m : nodes(a)) // associativity: (p * q) * b = p * (q * b)
+                    if (m.kind() == Kind.Mul) res += merge(c, add(Kind.Mul, m.a(), add(Kind.Mul, m.b(), b)));
+                if (is(a, 1.0)) res += merge(c, b);
+                if (is(a, 0.0)) res += merge(c, a);
+                if (is(a, -1.0)) res += merge(c, add(Kind.Neg, b));
+                if (a == b) res += merge(c, add(Kind.Pow, a, lit(2.0)));
+                for (var m : nodes(b)) { // b = 1 / q
+                    if (m.kind() == Kind.Div && is(m.a(), 1.0)) res += merge(c, add(Kind.Div, a, m.b()));
+                }
+                for (var m : nodes(a)) { // a = p^k
+                    if (m.kind() != Kind.Pow || constant(m.b()) == null) continue;
+                    double k = constant(m.b()).get();
+                    if (find(m.a()) == b) res += merge(c, add(Kind.Pow, b, lit(k + 1.0)));
+                    for (var l : nodes(b)) // b = p^l
+                        if (l.kind() == Kind.Pow && find(l.a()) == find(m.a()) && constant(l.b()) != null)
+                            res += merge(c, add(Kind.Pow, m.a(), lit(k + constant(l.b()).get())));
+                }
+            }
+            case Sub -> {
+                res += merge(c, add(Kind.Add, a, add(Kind.Neg, b)));
+                if (a == b) res += merge(c, lit(0.0));
+            }
+            case Div -> {
+                res += merge(c, add(Kind.Mul, a, add(Kind.Div, lit(1.0), b)));
+                if (is(b, 1.0)) res += merge(c, a);
+                if (a == b) res += merge(c, lit(1.0));
+                for (var m : nodes(a)) // (p * q) / b = p * (q / b)
+                    if (m.kind() == Kind.Mul) res += merge(c, add(Kind.Mul, m.a(), add(Kind.Div, m.b(), b)));
+            }
+            case Pow -> {
+                if (is(b, 1.0)) res += merge(c, a);
+                if (is(b, 0.0)) res += merge(c, lit(1.0));
+                if (is(b, -1.0)) res += merge(c, add(Kind.Div, lit(1.0), a));
+                // small integer powers as fmuls; choose() decides whether that beats the Pow
+                var    k = constant(b);
+                double e = k == null ? 0.0 : k.get();
+                if (e == Math.rint(e) && Math.abs(e) >= 2.0 && Math.abs(e) <= 8.0) {
+                    res += e > 0.0
+                            ? merge(c, add(Kind.Mul, add(Kind.Pow, a, lit(e - 1.0)), a))
+                            : merge(c, add(Kind.Div, lit(1.0), add(Kind.Pow, a, lit(-e))));
+                }
+            }
+            case Neg -> {
+                res += merge(c, add(Kind.Mul, lit(-1.0), a));
+                for (var m : nodes(a))
+                    if (m.kind() == Kind.Neg) res += merge(c, m.a());
+            }
+            default -> {}
+        }
+        return res;
+    }
+
+    /// Constant folding.
+    private int fold(int c, Kind kind, int a, int b) {
+        if (a < 0 || constant(c) != null) return 0;
+        var x = constant(a);
+        var y = b < 0 ? x : constant(b);
+        if (x == null || y == null) return 0;
+        return merge(c, lit(Tape.scalar(kind, x.get(), y.get())));
+    }
+
+    /// Merges e-class @p a with @p b unless @p b is -1 because the budget is exhausted.
+    private int merge(int a, int b) { return b >= 0 && union(a, b) ? 1 : 0; }
+
+    private ArrayList<ENode> nodes(int c) { return new ArrayList<>(nodes_.get(find(c))); }
+
+    /*
+     * extraction
+     */
+
+    /// Builds the Op of e-class @p root from the e-nodes in @p choice, reusing what's already in @p ops.
+    private Op extract(int root, ENode[] choice, HashMap<Integer, Op> ops) {
+        var stack  = new ArrayDeque<Integer>();
+        stack.push(find(root));
+        while (!stack.isEmpty()) {
+            int c = stack.peek();
+            if (ops.containsKey(c)) {
+                stack.pop();
+                continue;
+            }
+            var n     = choice[c];
+            var ready = true;
+            for (int in : new int[] { n.a(), n.b() }) {
+                if (in >= 0 && !ops.containsKey(find(in))) {
+                    stack.push(find(in));
+                    ready = false;
+                }
+            }
+            if (!ready) continue;
+
+            stack.pop();
+            var x = n.a() < 0 ? null : ops.get(find(n.a()));
+            var y = n.b() < 0 ? null : ops.get(find(n.b()));
+            ops.put(c, switch (n.kind()) {
+                case Lit, Var -> n.leaf();
+                case Add -> x.add(y);
+                case Sub -> x.sub(y);
+                case Mul -> x.mul(y);
+                case Div -> x.div(y);
+                case Pow -> x.pow(y);
+                case Neg -> x.neg();
+                case Exp -> x.exp();
+                case Log -> x.log();
+                case Sin -> x.sin();
+                case Cos -> x.cos();
+                case Grad, Fma, Sum, Product -> throw new IllegalStateException(n.kind() + " in e-graph");
+            });
+        }
+        return ops.get(find(root));
+    }
+
+    /// The cheapest e-node per e-class, iterating to a fixpoint as e-classes may refer to each other in cycles.
+    private ENode[] choose() {
+        int n      = nodes_.size();
+        var best   = new double[n];
+        var choice = new ENode[n];
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+        for (boolean changed = true; changed;) {
+            changed = false;
+            for (int c = 0; c != n; ++c) {
+                if (find(c) != c) continue;
+                for (var node : nodes_.get(c)) {
+                    double cost = PassManager.cost(node.kind());
+                    if (node.a() >= 0) cost += best[find(node.a())];
+                    if (node.b() >= 0) cost += best[find(node.b())];
+                    if (cost < best[c]) {
+                        best[c]   = cost;
+                        choice[c] = node;
+                        changed   = true;
+                    }
+                }
+            }
+        }
+        return choice;
+    }
+}
@@ -0,0 +1,55 @@
+package mll;
+
+/// Fused multiply-add `x * y + z` with a single rounding, see Math.fma.
+/// Nodes only has room for two inputs, so - much like a Grad - the addend is kept here.
+public class Fma extends Op {
+    private final Op addend_;
+
+    Fma(Op x, Op y, Op z) {
+        super(x.dag(), x, y);
+        addend_ = z;
+    }
+
+    public static Op c(Op x, Op y, Op z) {
+        var dag = x.dag();
+        if (x instanceof Lit l && y instanceof Lit m) {
+            if (z instanceof Lit n) return dag.lit(Math.fma(l.get(), m.get(), n.get()));
+            return x.mul(y).add(z);
+        }
+        if (commute(x, y)) {
+            var t = x; // swap
+            x = y;
+            y = t;
+        }
+
+        if (Lit.is(x, 0.f)) return z; // 0 * y + z = z
+        if (Lit.is(x, 1.f)) return y.add(z); // 1 * y + z = y + z
+        if (Lit.is(x, -1.f)) return z.sub(y); // -1 * y + z = z - y
+        if (Lit.is(z, 0.f)) return x.mul(y); // x * y + 0 = x * y
+
+        return dag.unify(x, y, z);
+    }
+
+    public Op multiplier() { return input(0); }
+    public Op multiplicand() { return input(1); }
+    public Op addend() { return addend_; }
+
+    @Override Kind kind() { return Kind.Fma; }
+    @Override public Op input(int i) { return i == 2 ? addend_ : super.input(i); }
+    @Override public int numInputs() { return 3; }
+
+    @Override public String toString() {
+        return String.format("fma(%s, %s, %s)", multiplier(), multiplicand(), addend());
+    }
+
+    @Override protected double eval_(double[] inVals) { return Math.fma(inVals[0], inVals[1], inVals[2]); }
+
+    @Override protected Op diff(int inputIdx) {
+        // (x * y + z)' = x' * y + x * y' + z'
+        return switch (inputIdx) {
+            case 0 -> multiplicand();
+            case 1 -> multiplier();
+            default -> lit1();
+        };
+    }
+}
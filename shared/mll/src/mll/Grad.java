@@ -1,19 +1,22 @@
 package mll;
 
-import java.io.IOException;
-import java.io.Writer;
-import java.util.HashMap;
-
 public class Grad extends Op {
     private double[] result_; // cached result after eval
+    private Op[]     inputs_; // n-ary, so unlike other Ops these are not kept in Nodes
     private Var[]    vars_;
 
     Grad(Op[] inputs, Var[] vars) {
         super(inputs[0].dag(), inputs);
-        vars_ = vars;
+        inputs_ = inputs;
+        vars_   = vars;
     }
 
-    public static Grad c(Op[] inputs, Var[] vars) { return (Grad) inputs[0].dag().unify(new Grad(inputs, vars)); }
+    public static Grad c(Op[] inputs, Var[] vars) { return inputs[0].dag().unify(inputs, vars); }
+
+    @Override Kind kind() { return Kind.Grad; }
+    @Override public Op[] inputs() { return inputs_; }
+    @Override public Op input(int i) { return inputs_[i]; }
+    @Override public int numInputs() { return inputs_.length; }
 
     double[] result() { return result_; }
     Var[] vars() { return vars_; }
@@ -33,22 +36,6 @@ public class Grad extends Op {
         return result_[0];
     }
 
-    @Override protected String llvm_(HashMap<Op, String> map, Writer writer) throws IOException {
-        throw new IllegalArgumentException("You can only emit a store via llvm_store.");
-    }
-
-    @Override protected void llvm_store(HashMap<Op, String> map, Writer writer) throws IOException {
-        int n          = numInputs();
-        var llvmInputs = new String[n];
-        for (int i = 0; i != n; ++i) llvmInputs[i] = input(i).llvm(map, writer);
-
-        for (int i = 0, e = numInputs(); i != e; ++i) {
-            var gep   = String.format("\t%%_output%d = getelementptr inbounds double, ptr %%_output, i64 %d\n", i, i);
-            var store = String.format("\tstore double %s, ptr %%_output%d\n", llvmInputs[i], i);
-            writer.append(gep + store);
-        }
-    }
-
     @Override protected Op diff(int inputIdx) {
         throw new IllegalArgumentException("A Grad Op already holds the derivatives.");
     }
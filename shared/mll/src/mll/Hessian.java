@@ -0,0 +1,161 @@
+package mll;
+
+import java.util.BitSet;
+import java.util.HashMap;
+
+/// Sparse Hessian of a scalar Op, recovered from few Hessian-vector products.
+///
+/// First the sparsity pattern is derived from the DAG alone: Each nonlinear Op couples the Var%s its inputs depend on,
+/// e.g. `a * b` couples each Var of `a` with each of `b` and `sin(a)` all Vars of `a` with each other. Linear Ops -
+/// Add, Sub, Neg, Sum - couple nothing. The pattern is conservative: an entry outside of it is always 0.
+/// Then the columns are colored greedily such that no two columns of the same color share a nonzero row. One HVP per
+/// color with the sum of the unit vectors of that color as direction yields all nonzeros of these columns directly.
+/// So a banded or block diagonal Hessian costs a few HVPs regardless of the number of Vars.
+///
+/// The result is an ordinary Grad - kernel() - holding the value followed by all nonzeros in row-major order, so it
+/// can be evaluated, compiled, jitted, or emitted as LLVM IR like any other Op.
+public final class Hessian {
+    private final Var[] vars_;
+    private final int[] rows_;
+    private final int[] cols_;
+    private final int   numColors_;
+    private final Grad  kernel_;
+    private Tape        tape_;
+
+    private Hessian(Var[] vars, int[] rows, int[] cols, int numColors, Grad kernel) {
+        vars_      = vars;
+        rows_      = rows;
+        cols_      = cols;
+        numColors_ = numColors;
+        kernel_    = kernel;
+    }
+
+    static Hessian of(Op f, Var[] wrt) {
+        int n       = wrt.length;
+        var pattern = pattern(f, wrt);
+
+        // distance-2 coloring of the columns; by symmetry column j has the same nonzeros as row j
+        var color     = Jacobian.color(pattern, pattern);
+        int numColors = 0;
+        for (int c : color) numColors = Math.max(numColors, c + 1);
+
+        // one HVP per color, all sharing the gradient
+        var grad     = f.backwards(wrt);
+        var partials = new Op[n];
+        System.arraycopy(grad.inputs(), 1, partials, 0, n);
+        var hv = new Op[numColors][];
+        for (int c = 0; c != numColors; ++c) {
+            var seeds = new HashMap<Op, Op>();
+            for (int j = 0; j != n; ++j)
+                if (color[j] == c) seeds.put(wrt[j], f.lit1());
+            hv[c] = Op.tangents(partials, seeds);
+        }
+
+        int nnz = 0;
+        for (var row : pattern) nnz += row.cardinality();
+        var rows   = new int[nnz];
+        var cols   = new int[nnz];
+        var inputs = new Op[nnz + 1];
+        var vars   = new Var[nnz]; // the Var of each entry's column, so each output is still "the partial w.r.t. a Var"
+        inputs[0] = f;
+        for (int i = 0, k = 0; i != n; ++i) {
+            for (int j = pattern[i].nextSetBit(0); j >= 0; j = pattern[i].nextSetBit(j + 1), ++k) {
+                rows[k]       = i;
+                cols[k]       = j;
+                inputs[k + 1] = hv[color[j]][i];
+                vars[k]       = wrt[j];
+            }
+        }
+        return new Hessian(wrt, rows, cols, numColors, Grad.c(inputs, vars));
+    }
+
+    /// Rows of the structurally nonzero entries per Var of @p wrt; symmetric.
+    private static BitSet[] pattern(Op f, Var[] wrt) {
+        int n       = wrt.length;
+        var pattern = new BitSet[n];
+        for (int i = 0; i != n; ++i) pattern[i] = new BitSet(n);
+
+        var index = new HashMap<Op, Integer>();
+        for (int i = 0; i != n; ++i) index.put(wrt[i], i);
+
+        var order = f.topo();
+        var deps  = new HashMap<Op, BitSet>(); // the Vars of wrt each Op depends on
+        var none  = new BitSet();
+        for (var op : order) {
+            var dep = new BitSet(n);
+            if (op instanceof Var && index.containsKey(op)) dep.set(index.get(op));
+            for (int i = 0, e = op.numInputs(); i != e; ++i) dep.or(deps.get(op.input(i)));
+            deps.put(op, dep.isEmpty() ? none : dep);
+            if (dep.isEmpty()) continue;
+
+            var a = op.numInputs() > 0 ? deps.get(op.input(0)) : none;
+            var b = op.numInputs() > 1 ? deps.get(op.input(1)) : none;
+            switch (op.kind()) {
+                case Mul, Fma -> couple(pattern, a, b);
+                case Div -> {
+                    couple(pattern, a, b);
+                    couple(pattern, b, b);
+                }
+                case Pow -> couple(pattern, dep, dep);
+                case Exp, Log, Sin, Cos -> couple(pattern, a, a);
+                case Product -> { // each factor with all others, via the union of all factors before and after it
+                    int m      = op.numInputs();
+                    var suffix = new BitSet[m + 1];
+                    suffix[m] = none;
+                    for (int i = m; i-- != 0;) {
+                        suffix[i] = (BitSet) suffix[i + 1].clone();
+                        suffix[i].or(deps.get(op.input(i)));
+                    }
+                    var prefix = new BitSet(n);
+                    for (int i = 0; i != m; ++i) {
+                        var others = (BitSet) prefix.clone();
+                        others.or(suffix[i + 1]);
+                        couple(pattern, deps.get(op.input(i)), others);
+                        prefix.or(deps.get(op.input(i)));
+                    }
+                }
+                default -> {} // linear
+            }
+        }
+        return pattern;
+    }
+
+    /// Marks all entries `(i, j)` and `(j, i)` for `i` in @p a and `j` in @p b.
+    private static void couple(BitSet[] pattern, BitSet a, BitSet b) {
+        for (int i = a.nextSetBit(0); i >= 0; i = a.nextSetBit(i + 1)) pattern[i].or(b);
+        for (int j = b.nextSetBit(0); j >= 0; j = b.nextSetBit(j + 1)) pattern[j].or(a);
+    }
+
+    /*
+     * getters
+     */
+
+    /// The Var of each row and column.
+    public Var[] vars() { return vars_; }
+    /// Number of structurally nonzero entries, i.e. outputs of kernel() after the value.
+    public int nnz() { return rows_.length; }
+    public int row(int k) { return rows_[k]; }
+    public int col(int k) { return cols_[k]; }
+    /// Number of HVPs needed to recover all nonzeros.
+    public int numColors() { return numColors_; }
+
+    /// The value followed by entry `k` of the Hessian as output `k + 1`; compile(), jit(), or llvm() it.
+    public Grad kernel() { return kernel_; }
+
+    /*
+     * Eval
+     */
+
+    /// The dense Hessian at @p at, which is ordered like the free Var%s of kernel(). Compiles kernel() on first use.
+    /// Not thread-safe.
+    public double[][] eval(double... at) {
+        if (tape_ == null) tape_ = kernel_.compile();
+        var out = new double[tape_.numOutputs()];
+        tape_.eval(at, out);
+
+        int n   = vars_.length;
+        var res = new double[n][n];
+        for (int k = 0, e = rows_.length; k != e; ++k) res[rows_[k]][cols_[k]] = out[k + 1];
+        return res;
+    }
+}
@@ -0,0 +1,156 @@
+package mll;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/// Keeps the values of all Op%s of a Tape and re-evaluates only what depends on the Var%s that changed.
+///
+/// Each set() of a Var queues the instructions reading it; the next get() recomputes queued instructions in Tape
+/// order and queues the readers of each one whose value actually changed. So a step that changes a few Vars costs
+/// their downstream cone - or less, where a value comes out the same - instead of the whole Tape. The reverse edges
+/// are built once from the Tape's operands in compressed form.
+/// The outputs are those of the Tape, so for a Grad root the partials are kept up to date just as well.
+/// Values are bit-identical to Tape.eval at the same point. Not thread-safe.
+public final class Incremental {
+    private final Tape      tape_;
+    private final double[]  regs_;
+    private final int[]     userPtr_; // readers of register r are users_[userPtr_[r] .. userPtr_[r + 1])
+    private final int[]     users_;
+    private final boolean[] queued_;  // per instruction
+    private final int[]     heap_;    // min-heap of the queued instructions, so inputs are recomputed before users
+    private int             size_;
+    private long            numSteps_;
+
+    /// Evaluates @p tape once at @p values - ordered like Tape.vars() - to start from.
+    public Incremental(Tape tape, double... values) {
+        tape_ = tape;
+        regs_ = tape.registers();
+        tape.eval(values, null, regs_);
+
+        int n = tape.numInstrs();
+        userPtr_ = new int[tape.numRegisters() + 1];
+        for (int k = 0; k != n; ++k) {
+            int a = tape.lhs(k), b = tape.rhs(k), c = tape.acc(k);
+            ++userPtr_[a + 1];
+            if (b != a) ++userPtr_[b + 1];
+            if (c != a && c != b) ++userPtr_[c + 1];
+        }
+        for (int r = 0, e = tape.numRegisters(); r != e; ++r) userPtr_[r + 1] += userPtr_[r];
+        users_ = new int[userPtr_[tape.numRegisters()]];
+        var fill = Arrays.copyOf(userPtr_, tape.numRegisters());
+        for (int k = 0; k != n; ++k) {
+            int a = tape.lhs(k), b = tape.rhs(k), c = tape.acc(k);
+            users_[fill[a]++] = k;
+            if (b != a) users_[fill[b]++] = k;
+            if (c != a && c != b) users_[fill[c]++] = k;
+        }
+
+        queued_ = new boolean[n];
+        heap_   = new int[n];
+    }
+
+    public Tape tape() { return tape_; }
+
+    /// Number of instructions recomputed so far, not counting the initial evaluation.
+    public long numSteps() { return numSteps_; }
+
+    /*
+     * setters
+     */
+
+    /// Sets Var @p i - in Tape.vars() order - to @p value.
+    public void set(int i, double value) {
+        Objects.checkIndex(i, tape_.numVars());
+        int r = tape_.firstVar() + i;
+        if (same(regs_[r], value)) return;
+        regs_[r] = value;
+        queueUsers(r);
+    }
+
+    /// Sets @p var to @p value.
+    public void set(Var var, double value) {
+        int i = Arrays.binarySearch(tape_.vars(), var, (v, w) -> v.name().compareTo(w.name()));
+        if (i < 0 || tape_.vars()[i] != var) throw new IllegalArgumentException(var + " is not a free variable");
+        set(i, value);
+    }
+
+    /// Sets all Vars to @p values, ordered like Tape.vars(); only those that differ cause any work.
+    public void set(double... values) {
+        if (values.length != tape_.numVars())
+            throw new IllegalArgumentException("number of provided values does not match number of free variables");
+        for (int i = 0, e = values.length; i != e; ++i) set(i, values[i]);
+    }
+
+    /*
+     * getters
+     */
+
+    /// The first output - the value for a Grad root - after bringing everything up to date.
+    public double get() {
+        update();
+        return regs_[tape_.output(0)];
+    }
+
+    /// Output @p i - e.g. a single partial of a Grad root - after bringing everything up to date.
+    public double get(int i) {
+        update();
+        return regs_[tape_.output(i)];
+    }
+
+    /// Same as get(), but also writes all outputs to @p out. That alone costs O(numOutputs()); see get(int).
+    public double get(double[] out) {
+        update();
+        for (int i = 0, e = tape_.numOutputs(); i != e; ++i) out[i] = regs_[tape_.output(i)];
+        return regs_[tape_.output(0)];
+    }
+
+    /*
+     * dirty propagation
+     */
+
+    private void update() {
+        int first = tape_.firstInstr();
+        while (size_ != 0) {
+            int k = pop();
+            queued_[k] = false;
+            ++numSteps_;
+            double val = tape_.step(regs_, k);
+            if (same(regs_[first + k], val)) continue; // cut off: nothing downstream changes
+            regs_[first + k] = val;
+            queueUsers(first + k);
+        }
+    }
+
+    private void queueUsers(int r) {
+        for (int u = userPtr_[r], e = userPtr_[r + 1]; u != e; ++u) {
+            int k = users_[u];
+            if (queued_[k]) continue;
+            queued_[k] = true;
+            push(k);
+        }
+    }
+
+    /// Bitwise, so that `-0.0` and `0.0` differ - think of `1 / x` - while NaN equals NaN.
+    private static boolean same(double x, double y) { return Double.doubleToLongBits(x) == Double.doubleToLongBits(y); }
+
+    private void push(int k) {
+        var heap = heap_;
+        int i    = size_++;
+        for (int parent; i != 0 && heap[parent = (i - 1) >>> 1] > k; i = parent) heap[i] = heap[parent];
+        heap[i] = k;
+    }
+
+    private int pop() {
+        var heap = heap_;
+        int res  = heap[0];
+        int last = heap[--size_];
+        int i    = 0;
+        for (int child; (child = 2 * i + 1) < size_; i = child) {
+            if (child + 1 < size_ && heap[child + 1] < heap[child]) ++child;
+            if (heap[child] >= last) break;
+            heap[i] = heap[child];
+        }
+        heap[i] = last;
+        return res;
+    }
+}
@@ -0,0 +1,184 @@
+package mll;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/// Sparse Jacobian of several root Ops sharing one DAG, in compressed sparse row (CSR) form.
+///
+/// The sparsity pattern is plain reachability: Entry `(i, j)` may be nonzero iff root `i` depends on Var `j`.
+/// Columns that share no row can be seeded together in one forward sweep, rows that share no column in one reverse
+/// sweep. Both are colored greedily and whichever mode needs fewer sweeps is used - forward for few Vars or banded
+/// columns, reverse for few roots. Each nonzero is then read off its sweep directly.
+///
+/// The result is an ordinary Grad - kernel() - holding the value of the first root followed by all nonzeros in CSR
+/// order, so the whole Jacobian comes out of one compiled Tape, Kernel, or LLVM function.
+public final class Jacobian {
+    private final Var[]   vars_;
+    private final Var[]   params_;
+    private final int[]   rowPtr_;
+    private final int[]   colIdx_;
+    private final boolean forward_;
+    private final int     numColors_;
+    private final Grad    kernel_;
+    private Tape          tape_;
+    private int[]         slot_; // position in the values passed to eval() of each Var of tape_
+
+    private Jacobian(Var[] vars, Var[] params, int[] rowPtr, int[] colIdx, boolean forward, int numColors,
+            Grad kernel) {
+        vars_      = vars;
+        params_    = params;
+        rowPtr_    = rowPtr;
+        colIdx_    = colIdx;
+        forward_   = forward;
+        numColors_ = numColors;
+        kernel_    = kernel;
+    }
+
+    static Jacobian of(Op[] roots, Var[] wrt) {
+        if (roots.length == 0) throw new IllegalArgumentException("no roots");
+        int m = roots.length;
+        int n = wrt.length;
+
+        // rows[i]: Vars root i depends on; cols[j]: roots depending on Var j
+        var index = new HashMap<Op, Integer>();
+        for (int j = 0; j != n; ++j) index.put(wrt[j], j);
+        var deps  = new HashMap<Op, BitSet>();
+        var order = Op.topo(roots);
+        for (var op : order) {
+            var dep = new BitSet(n);
+            if (op instanceof Var && index.containsKey(op)) dep.set(index.get(op));
+            for (int i = 0, e = op.numInputs(); i != e; ++i) dep.or(deps.get(op.input(i)));
+            deps.put(op, dep);
+        }
+        var rows = new BitSet[m];
+        var cols = new BitSet[n];
+        for (int j = 0; j != n; ++j) cols[j] = new BitSet(m);
+        for (int i = 0; i != m; ++i) {
+            rows[i] = deps.get(roots[i]);
+            for (int j = rows[i].nextSetBit(0); j >= 0; j = rows[i].nextSetBit(j + 1)) cols[j].set(i);
+        }
+
+        var colColor = color(cols, rows);
+        var rowColor = color(rows, cols);
+        int numCols  = numColors(colColor);
+        int numRows  = numColors(rowColor);
+        var forward  = numCols <= numRows;
+
+        // one sweep per color: forward yields column sums, reverse row sums
+        int numColors = forward ? numCols : numRows;
+        var sweeps    = new Op[numColors][];
+        for (int c = 0; c != numColors; ++c) {
+            if (forward) {
+                var seeds = new HashMap<Op, Op>();
+                for (int j = 0; j != n; ++j)
+                    if (colColor[j] == c) seeds.put(wrt[j], wrt[j].lit1());
+                sweeps[c] = Op.tangents(roots, seeds);
+            } else {
+                int size = 0;
+                for (int i = 0; i != m; ++i)
+                    if (rowColor[i] == c) ++size;
+                var seeded = new Op[size];
+                for (int i = 0, k = 0; i != m; ++i)
+                    if (rowColor[i] == c) seeded[k++] = roots[i];
+                sweeps[c] = Op.adjoints(seeded, wrt);
+            }
+        }
+
+        int nnz = 0;
+        for (var row : rows) nnz += row.cardinality();
+        var rowPtr = new int[m + 1];
+        var colIdx = new int[nnz];
+        var inputs = new Op[nnz + 1];
+        var vars   = new Var[nnz]; // the Var of each entry's column, so each output is still "the partial w.r.t. a Var"
+        inputs[0] = roots[0];
+        for (int i = 0, k = 0; i != m; ++i) {
+            rowPtr[i] = k;
+            for (int j = rows[i].nextSetBit(0); j >= 0; j = rows[i].nextSetBit(j + 1), ++k) {
+                colIdx[k]     = j;
+                inputs[k + 1] = forward ? sweeps[colColor[j]][i] : sweeps[rowColor[i]][j];
+                vars[k]       = wrt[j];
+            }
+            rowPtr[i + 1] = k;
+        }
+        var params = Arrays.stream(Op.freeVars(order)).filter(var -> !index.containsKey(var)).toArray(Var[]::new);
+        return new Jacobian(wrt, params, rowPtr, colIdx, forward, numColors, Grad.c(inputs, vars));
+    }
+
+    /// Greedy coloring of the lines - columns or rows - such that no two lines that cross the same line of the other
+    /// kind get the same color. @p lines holds the crossing lines per line, @p crossing the reverse.
+    static int[] color(BitSet[] lines, BitSet[] crossing) {
+        var color     = new int[lines.length];
+        var forbidden = new BitSet();
+        for (int j = 0, n = lines.length; j != n; ++j) {
+            forbidden.clear();
+            for (int i = lines[j].nextSetBit(0); i >= 0; i = lines[j].nextSetBit(i + 1))
+                for (int k = crossing[i].nextSetBit(0); k >= 0 && k < j; k = crossing[i].nextSetBit(k + 1))
+                    forbidden.set(color[k]);
+            color[j] = forbidden.nextClearBit(0);
+        }
+        return color;
+    }
+
+    private static int numColors(int[] color) {
+        int res = 0;
+        for (int c : color) res = Math.max(res, c + 1);
+        return res;
+    }
+
+    /*
+     * getters
+     */
+
+    /// The Var of each column.
+    public Var[] vars() { return vars_; }
+    /// Free Var%s of the roots that are no columns, sorted by name; usually none.
+    public Var[] params() { return params_; }
+    public int numRows() { return rowPtr_.length - 1; }
+    public int numCols() { return vars_.length; }
+    public int nnz() { return colIdx_.length; }
+    /// Entries of row `i` are `[rowPtr()[i], rowPtr()[i + 1])`.
+    public int[] rowPtr() { return rowPtr_; }
+    /// Column of each entry.
+    public int[] colIdx() { return colIdx_; }
+    /// Whether the sweeps are forward (over colored columns) or reverse (over colored rows).
+    public boolean isForward() { return forward_; }
+    /// Number of sweeps needed to recover all nonzeros.
+    public int numColors() { return numColors_; }
+
+    /// The value of the first root followed by entry `k` as output `k + 1`; compile(), jit(), or llvm() it.
+    /// Note that its free Var%s may be fewer than vars() - a Var only reaching a later root with a constant partial
+    /// drops out - so it takes values ordered like its own freeVars(), not like the columns; eval() maps them.
+    public Grad kernel() { return kernel_; }
+
+    /*
+     * Eval
+     */
+
+    /// The CSR values at @p at, which holds the value of each column - ordered like vars() - followed by those of
+    /// params(). Compiles kernel() on first use.
+    /// Not thread-safe.
+    public double[] eval(double... at) {
+        if (at.length != vars_.length + params_.length)
+            throw new IllegalArgumentException("number of provided values does not match number of columns and params");
+        if (tape_ == null) compile();
+        var values = new double[slot_.length];
+        for (int i = 0, e = values.length; i != e; ++i) values[i] = at[slot_[i]];
+        var out = new double[tape_.numOutputs()];
+        tape_.eval(values, out);
+        var res = new double[nnz()];
+        System.arraycopy(out, 1, res, 0, res.length);
+        return res;
+    }
+
+    private void compile() {
+        var pos = new HashMap<Var, Integer>();
+        for (int j = 0, n = vars_.length; j != n; ++j) pos.putIfAbsent(vars_[j], j);
+        for (int j = 0, n = params_.length; j != n; ++j) pos.put(params_[j], vars_.length + j);
+        var tape = kernel_.compile();
+        var slot = new int[tape.numVars()];
+        for (int i = 0, e = slot.length; i != e; ++i) slot[i] = pos.get(tape.vars()[i]);
+        tape_ = tape;
+        slot_ = slot;
+    }
+}
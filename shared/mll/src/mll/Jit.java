@@ -0,0 +1,462 @@
+package mll;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.function.Consumer;
+
+/// Translates an Op DAG into a hidden class implementing Kernel.
+/// Each `apply` is straight-line bytecode - one instruction sequence per Op - so C2 can inline and register-allocate
+/// the whole expression. Values live in JVM locals; graphs too large for a single method instead spill to a
+/// `double[]` and are split into several static segment methods.
+/// The constant pool is limited to 65535 entries, too: The first POOL_LITS distinct Lit%s are constants there,
+/// any others are read from the static array `L`, and no integer ever goes to the pool.
+final class Jit {
+    private static final String NAME      = "mll/JitKernel";
+    private static final int    MAX_CODE  = 65535; // JVM limit per method
+    private static final int    POOL_LITS = 8192;  // two constant pool entries each
+
+    // @formatter:off
+    private static final int ALOAD = 0x19, ASTORE = 0x3a, DLOAD = 0x18, DSTORE = 0x39, WIDE = 0xc4;
+    private static final int BIPUSH = 0x10, SIPUSH = 0x11, LDC2_W = 0x14, ISHL = 0x78, IOR = 0x80;
+    private static final int DCONST_0 = 0x0e, DCONST_1 = 0x0f, DALOAD = 0x31, DASTORE = 0x52;
+    private static final int DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f, DNEG = 0x77;
+    private static final int GETSTATIC = 0xb2, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, NEWARRAY = 0xbc, T_DOUBLE = 7;
+    private static final int ACONST_NULL = 0x01, ALOAD_0 = 0x2a, DRETURN = 0xaf, RETURN = 0xb1;
+    // @formatter:on
+
+    private final HashMap<String, Integer> pool_    = new HashMap<>();
+    private final Bytes                    cp_      = new Bytes();
+    private final Bytes                    methods_ = new Bytes();
+    private int                            numCp_   = 1;
+    private int                            numMethods_;
+    private int                            numSegments_;
+    private final int[]                    varIdx_;
+    private final HashMap<Long, Integer>   litIdx_  = new HashMap<>(); // by bits, in order of first use
+    private final int                      maxStack_; // room for a pairwise reduction of the widest NaryOp
+
+    private Jit(Op root) {
+        var vars  = new ArrayList<Var>();
+        int maxID = 0, maxArity = 2;
+        for (var op : root.topo()) {
+            maxID = Math.max(maxID, op.id());
+            if (op instanceof Var var) vars.add(var);
+            if (op instanceof Lit lit && !lit.is(1.0) && Double.doubleToLongBits(lit.get()) != 0L)
+                litIdx_.putIfAbsent(Double.doubleToLongBits(lit.get()), litIdx_.size());
+            if (op instanceof NaryOp) maxArity = Math.max(maxArity, op.numInputs());
+        }
+        // + 2 for push() composing a large index
+        maxStack_ = Math.max(10, 4 + 2 * (33 - Integer.numberOfLeadingZeros(maxArity)));
+        vars.sort((v, w) -> v.name().compareTo(w.name())); // same order as freeVars()
+        varIdx_ = new int[maxID + 1];
+        for (int i = 0, e = vars.size(); i != e; ++i) varIdx_[vars.get(i).id()] = i;
+    }
+
+    static Kernel compile(Op root) {
+        var outs = root instanceof Grad grad ? grad.inputs() : new Op[] { root };
+        var jit  = new Jit(root);
+        jit.init();
+        jit.apply(new Op[] { outs[0] }, true);
+        jit.apply(outs, false);
+
+        try {
+            var lookup = MethodHandles.lookup().defineHiddenClass(jit.bytes(), true);
+            if (jit.litIdx_.size() > POOL_LITS)
+                lookup.findStaticVarHandle(lookup.lookupClass(), "L", double[].class).set(jit.lits());
+            var ctor   = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class));
+            return (Kernel) ctor.invoke();
+        } catch (Throwable t) {
+            throw new IllegalStateException("could not define JIT class", t);
+        }
+    }
+
+    /*
+     * methods
+     */
+
+    private void init() {
+        var code = new Bytes();
+        code.u1(ALOAD_0);
+        code.u1(INVOKESPECIAL).u2(method("java/lang/Object", "<init>", "()V"));
+        code.u1(RETURN);
+        method(0x0001, "<init>", "()V", 1, 1, code);
+    }
+
+    /// Emits `double apply(double[] in)` if @p ret, otherwise `void apply(double[] in, double[] out)`.
+    private void apply(Op[] outs, boolean ret) {
+        var order = topo(outs);
+        if (!locals(order, outs, ret)) spill(order, outs, ret);
+    }
+
+    /// All values in locals: slot 1 is `in`, 2 is `out` (if any), then two slots per value.
+    /// Returns `false` if this exceeds the limits of a single method.
+    private boolean locals(ArrayList<Op> order, Op[] outs, boolean ret) {
+        int first = ret ? 2 : 3;
+        var slot  = new HashMap<Op, Integer>();
+        var code  = new Bytes();
+        for (var op : order) {
+            if (op instanceof Lit) continue;
+            int s = first + 2 * slot.size();
+            if (op instanceof Var) {
+                code.u1(ALOAD).u1(1);
+                push(code, varIdx_[op.id()]);
+                code.u1(DALOAD);
+            } else {
+                operands(code, op, input -> load(code, input, slot));
+            }
+            slot.put(op, s);
+            local(code, DSTORE, s);
+            if (code.size() > MAX_CODE || s > 0xfffd) return false;
+        }
+        store(code, outs, ret, op -> load(code, op, slot));
+        if (code.size() > MAX_CODE) return false;
+
+        method(0x0001, "apply", ret ? "([D)D" : "([D[D)V", maxStack_, first + 2 * slot.size(), code);
+        return true;
+    }
+
+    /// Values in a `double[] r` (local slot 3), computed by static segment methods `(double[] in, double[] r,
+    /// double[] out)`. Segments are cut by their size in bytes rather than by Ops, as a single wide NaryOp may take
+    /// more code than thousands of BinOps; one too large for any segment is reduced in parts, see Spill.compute().
+    private void spill(ArrayList<Op> order, Op[] outs, boolean ret) {
+        var spill = new Spill(ret);
+        for (var op : order)
+            if (!(op instanceof Lit || op instanceof Var)) spill.reg.put(op, spill.numRegs++);
+        for (var op : order)
+            if (!(op instanceof Lit || op instanceof Var)) spill.compute(op, 0, op.numInputs(), spill.reg.get(op));
+        if (!ret) { // a Grad may have so many outputs that storing them alone exceeds a method
+            for (int i = 0, e = outs.length; i != e; ++i) {
+                var unit = new Bytes();
+                unit.u1(ALOAD).u1(2);
+                push(unit, i);
+                spilled(unit, outs[i], spill.reg);
+                unit.u1(DASTORE);
+                spill.add(unit);
+            }
+        }
+        spill.flush();
+
+        var code = new Bytes();
+        push(code, spill.numRegs);
+        code.u1(NEWARRAY).u1(T_DOUBLE);
+        code.u1(ASTORE).u1(3);
+        code.bytes(spill.calls);
+        if (ret) {
+            store(code, outs, true, op -> {
+                if (op instanceof Lit || op instanceof Var) {
+                    load(code, op, null);
+                } else {
+                    code.u1(ALOAD).u1(3);
+                    push(code, spill.reg.get(op));
+                    code.u1(DALOAD);
+                }
+            });
+        } else {
+            code.u1(RETURN);
+        }
+        method(0x0001, "apply", ret ? "([D)D" : "([D[D)V", maxStack_, 4, code);
+    }
+
+    /// Registers and the segment being filled in spill mode.
+    private final class Spill {
+        final HashMap<Op, Integer> reg   = new HashMap<>();
+        final Bytes                calls = new Bytes(); // invokes each segment, for apply
+        final boolean              ret;
+        Bytes                      seg   = new Bytes();
+        int                        numRegs; // the Ops' registers plus those for partial reductions
+
+        Spill(boolean ret) { this.ret = ret; }
+
+        /// Stores @p op - or, for an NaryOp, the reduction of its inputs `[lo, hi)` - to register @p r.
+        /// If that doesn't fit into a segment, both halves go to registers of their own first; they are split just
+        /// like in reduce(), so the result rounds exactly the same.
+        void compute(Op op, int lo, int hi, int r) {
+            var unit = new Bytes();
+            unit.u1(ALOAD).u1(1);
+            push(unit, r);
+            if (op instanceof NaryOp)
+                reduce(unit, op, lo, hi, input -> spilled(unit, input, reg));
+            else
+                operands(unit, op, input -> spilled(unit, input, reg));
+            unit.u1(DASTORE);
+            if (unit.size() < MAX_CODE || !(op instanceof NaryOp)) {
+                add(unit);
+                return;
+            }
+
+            int mid = (lo + hi) >>> 1, x = numRegs++, y = numRegs++;
+            compute(op, lo, mid, x);
+            compute(op, mid, hi, y);
+            var join = new Bytes();
+            join.u1(ALOAD).u1(1);
+            push(join, r);
+            for (int part : new int[] { x, y }) {
+                join.u1(ALOAD).u1(1);
+                push(join, part);
+                join.u1(DALOAD);
+            }
+            join.u1(op instanceof Sum ? DADD : DMUL).u1(DASTORE);
+            add(join);
+        }
+
+        /// Appends @p unit to the current segment, starting a new one if it wouldn't fit anymore.
+        void add(Bytes unit) {
+            if (unit.size() >= MAX_CODE) throw new IllegalStateException("cannot JIT: instruction too large");
+            if (seg.size() + unit.size() + 1 > MAX_CODE) flush(); // + 1 for RETURN
+            seg.bytes(unit);
+        }
+
+        void flush() {
+            if (seg.size() == 0) return;
+            seg.u1(RETURN);
+            var name = "s" + numSegments_++;
+            method(0x000a, name, "([D[D[D)V", maxStack_, 3, seg); // private static
+            seg = new Bytes();
+
+            calls.u1(ALOAD).u1(1).u1(ALOAD).u1(3);
+            if (ret)
+                calls.u1(ACONST_NULL);
+            else
+                calls.u1(ALOAD).u1(2);
+            calls.u1(INVOKESTATIC).u2(method(NAME, name, "([D[D[D)V"));
+        }
+    }
+
+    private void store(Bytes code, Op[] outs, boolean ret, Consumer<Op> load) {
+        if (ret) {
+            load.accept(outs[0]);
+            code.u1(DRETURN);
+            return;
+        }
+        for (int i = 0, e = outs.length; i != e; ++i) {
+            code.u1(ALOAD).u1(2);
+            push(code, i);
+            load.accept(outs[i]);
+            code.u1(DASTORE);
+        }
+        code.u1(RETURN);
+    }
+
+    /*
+     * instructions
+     */
+
+    /// Loads the inputs of @p op via @p load and computes it; an NaryOp is reduced pairwise on the operand stack.
+    private void operands(Bytes code, Op op, Consumer<Op> load) {
+        if (op instanceof NaryOp) {
+            reduce(code, op, 0, op.numInputs(), load);
+        } else {
+            for (var input : op.inputs()) load.accept(input);
+            compute(code, op);
+        }
+    }
+
+    /// Same split as NaryOp.reduce; at most `log2(n) + 1` values are on the stack at once.
+    private void reduce(Bytes code, Op op, int lo, int hi, Consumer<Op> load) {
+        if (hi - lo == 1) {
+            load.accept(op.input(lo));
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        reduce(code, op, lo, mid, load);
+        reduce(code, op, mid, hi, load);
+        code.u1(op instanceof Sum ? DADD : DMUL);
+    }
+
+    private void compute(Bytes code, Op op) {
+        switch (op.kind()) {
+            case Add -> code.u1(DADD);
+            case Sub -> code.u1(DSUB);
+            case Mul -> code.u1(DMUL);
+            case Div -> code.u1(DDIV);
+            case Neg -> code.u1(DNEG);
+            case Pow -> code.u1(INVOKESTATIC).u2(method("java/lang/Math", "pow", "(DD)D"));
+            case Exp -> code.u1(INVOKESTATIC).u2(method("java/lang/Math", "exp", "(D)D"));
+            case Log -> code.u1(INVOKESTATIC).u2(method("java/lang/Math", "log", "(D)D"));
+            case Sin -> code.u1(INVOKESTATIC).u2(method("java/lang/Math", "sin", "(D)D"));
+            case Cos -> code.u1(INVOKESTATIC).u2(method("java/lang/Math", "cos", "(D)D"));
+            case Fma -> code.u1(INVOKESTATIC).u2(method("java/lang/Math", "fma", "(DDD)D"));
+            default -> throw new IllegalArgumentException("cannot JIT " + op.kind());
+        }
+    }
+
+    private void load(Bytes code, Op op, HashMap<Op, Integer> slot) {
+        if (op instanceof Lit lit) {
+            long bits = Double.doubleToLongBits(lit.get());
+            if (bits == 0L) {
+                code.u1(DCONST_0);
+            } else if (lit.is(1.0)) {
+                code.u1(DCONST_1);
+            } else {
+                int i = litIdx_.get(bits);
+                if (i < POOL_LITS) {
+                    code.u1(LDC2_W).u2(constant("D" + bits, () -> cp_.u1(6).u8(bits), 2));
+                } else {
+                    code.u1(GETSTATIC).u2(field(NAME, "L", "[D"));
+                    push(code, i - POOL_LITS);
+                    code.u1(DALOAD);
+                }
+            }
+        } else if (slot == null) { // Var in spill mode: in is slot 0 in segments, slot 1 in apply
+            code.u1(ALOAD).u1(1);
+            push(code, varIdx_[op.id()]);
+            code.u1(DALOAD);
+        } else {
+            local(code, DLOAD, slot.get(op));
+        }
+    }
+
+    /// Loads @p op within a segment method where `in` is slot 0, `r` slot 1, and `out` slot 2.
+    private void spilled(Bytes code, Op op, HashMap<Op, Integer> reg) {
+        if (op instanceof Lit) {
+            load(code, op, null);
+        } else {
+            code.u1(ALOAD).u1(op instanceof Var ? 0 : 1);
+            push(code, op instanceof Var ? varIdx_[op.id()] : reg.get(op));
+            code.u1(DALOAD);
+        }
+    }
+
+    private void local(Bytes code, int opcode, int slot) {
+        if (slot <= 0xff)
+            code.u1(opcode).u1(slot);
+        else
+            code.u1(WIDE).u1(opcode).u2(slot);
+    }
+
+    private void push(Bytes code, int i) {
+        if (-1 <= i && i <= 5)
+            code.u1(0x03 + i); // iconst_<i>
+        else if (Byte.MIN_VALUE <= i && i <= Byte.MAX_VALUE)
+            code.u1(BIPUSH).u1(i);
+        else if (Short.MIN_VALUE <= i && i <= Short.MAX_VALUE)
+            code.u1(SIPUSH).u2(i);
+        else { // (i >> 15) << 15 | low 15 bits
+            push(code, i >> 15);
+            code.u1(BIPUSH).u1(15).u1(ISHL);
+            code.u1(SIPUSH).u2(i & 0x7fff).u1(IOR);
+        }
+    }
+
+    /// The Lits beyond the first POOL_LITS, for `L`.
+    private double[] lits() {
+        var res = new double[litIdx_.size() - POOL_LITS];
+        for (var entry : litIdx_.entrySet()) {
+            int i = entry.getValue();
+            if (i >= POOL_LITS) res[i - POOL_LITS] = Double.longBitsToDouble(entry.getKey());
+        }
+        return res;
+    }
+
+    private static ArrayList<Op> topo(Op[] outs) {
+        var res  = new ArrayList<Op>();
+        var seen = new BitSet();
+        for (var out : outs)
+            for (var op : out.topo())
+                if (!seen.get(op.id())) {
+                    seen.set(op.id());
+                    res.add(op);
+                }
+        return res;
+    }
+
+    /*
+     * class file
+     */
+
+    private void method(int access, String name, String desc, int maxStack, int maxLocals, Bytes code) {
+        ++numMethods_;
+        methods_.u2(access).u2(utf8(name)).u2(utf8(desc)).u2(1);
+        methods_.u2(utf8("Code")).u4(12 + code.size());
+        methods_.u2(maxStack).u2(maxLocals).u4(code.size()).bytes(code).u2(0).u2(0);
+    }
+
+    private byte[] bytes() {
+        int thisClass  = clazz(NAME);
+        int superClass = clazz("java/lang/Object");
+        int iface      = clazz("mll/Kernel");
+        int lits       = litIdx_.size() > POOL_LITS ? utf8("L") : 0;
+        int litsType   = lits != 0 ? utf8("[D") : 0;
+        if (numCp_ > 0xffff) throw new IllegalStateException("cannot JIT: constant pool too large");
+
+        var res = new Bytes();
+        res.u4(0xcafebabe).u2(0).u2(61); // Java 17: straight-line code needs no StackMapTable
+        res.u2(numCp_).bytes(cp_);
+        res.u2(0x0031).u2(thisClass).u2(superClass); // public final super
+        res.u2(1).u2(iface);
+        if (lits != 0)
+            res.u2(1).u2(0x000a).u2(lits).u2(litsType).u2(0); // private static double[] L
+        else
+            res.u2(0); // fields
+        res.u2(numMethods_).bytes(methods_);
+        res.u2(0); // attributes
+        return res.toByteArray();
+    }
+
+    private int constant(String key, Runnable write, int slots) {
+        var res = pool_.get(key);
+        if (res != null) return res;
+        write.run();
+        pool_.put(key, numCp_);
+        numCp_ += slots;
+        return numCp_ - slots;
+    }
+
+    private int utf8(String s) { return constant("U" + s, () -> cp_.u1(1).utf(s), 1); }
+
+    private int clazz(String name) {
+        int n = utf8(name);
+        return constant("C" + name, () -> cp_.u1(7).u2(n), 1);
+    }
+
+    private int method(String owner, String name, String desc) {
+        int c  = clazz(owner);
+        int n  = utf8(name);
+        int d  = utf8(desc);
+        int nt = constant("N" + name + desc, () -> cp_.u1(12).u2(n).u2(d), 1);
+        return constant("M" + owner + "." + name + desc, () -> cp_.u1(10).u2(c).u2(nt), 1);
+    }
+
+    private int field(String owner, String name, String desc) {
+        int c  = clazz(owner);
+        int n  = utf8(name);
+        int d  = utf8(desc);
+        int nt = constant("N" + name + desc, () -> cp_.u1(12).u2(n).u2(d), 1);
+        return constant("F" + owner + "." + name + desc, () -> cp_.u1(9).u2(c).u2(nt), 1);
+    }
+
+    /// Big-endian byte sink.
+    private static final class Bytes {
+        private final ByteArrayOutputStream buf_ = new ByteArrayOutputStream();
+        private final DataOutputStream      out_ = new DataOutputStream(buf_);
+
+        int size() { return buf_.size(); }
+        byte[] toByteArray() { return buf_.toByteArray(); }
+
+        Bytes u1(int x) { return run(() -> out_.writeByte(x)); }
+        Bytes u2(int x) { return run(() -> out_.writeShort(x)); }
+        Bytes u4(int x) { return run(() -> out_.writeInt(x)); }
+        Bytes u8(long x) { return run(() -> out_.writeLong(x)); }
+        Bytes utf(String s) { return run(() -> out_.writeUTF(s)); }
+        Bytes bytes(Bytes b) { return run(() -> b.buf_.writeTo(out_)); }
+
+        private interface IO {
+            void run() throws IOException;
+        }
+
+        private Bytes run(IO io) {
+            try {
+                io.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+    }
+}
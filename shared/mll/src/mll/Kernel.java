@@ -0,0 +1,12 @@
+package mll;
+
+/// A natively compiled evaluator, see Op.jit().
+/// Inputs are ordered like freeVars(), i.e. by Var name.
+/// Unlike a Tape, a Kernel keeps no state between calls, so it may be shared among threads.
+public interface Kernel {
+    /// The value of the compiled root; for a Grad root just its first input, i.e. the function value.
+    double apply(double[] in);
+
+    /// Stores all outputs to @p out: the value followed by one partial per Var for a Grad root.
+    void apply(double[] in, double[] out);
+}
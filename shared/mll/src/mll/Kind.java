@@ -0,0 +1,8 @@
+package mll;
+
+/// Tags each concrete Op class; used by Tape and friends to switch over Ops without virtual dispatch.
+enum Kind {
+    Lit, Var, Add, Sub, Mul, Div, Pow, Neg, Exp, Log, Sin, Cos, Grad, Fma, Sum, Product;
+
+    static final Kind[] VALUES = values();
+}
@@ -0,0 +1,249 @@
+package mll;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/// Streams LLVM IR for an Op graph straight into a FileChannel.
+///
+/// Works on Op.topo() instead of recursing, so graphs of any depth are fine.
+/// Values are named by node ID - `%_<id>` - and Lit%erals are inlined as exact hex doubles, so there is neither a
+/// name map nor any per-instruction String: All text goes byte by byte into a pooled buffer.
+final class LLVMWriter implements Closeable {
+    private static final int                CAPACITY = 1 << 16;
+    private static final ThreadLocal<byte[]> POOL     = ThreadLocal.withInitial(() -> new byte[CAPACITY]);
+    private static final byte[]             HEX      = "0123456789ABCDEF".getBytes();
+
+    private final FileChannel channel_;
+    private final byte[]      buf_;
+    private int               pos_    = 0;
+    private final byte[]      digits_ = new byte[20];
+    private int               temp_;  // next temporary of the n-ary Op being reduced
+
+    private LLVMWriter(Path file) throws IOException {
+        channel_ = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buf_     = POOL.get();
+    }
+
+    /// Emits `void @mll(ptr %_input, ptr %_output)`, see Op.llvm(String).
+    static void emit(Op root, Path file) throws IOException {
+        var order = root.topo();
+        var vars  = Op.freeVars(order);
+        var outs  = root instanceof Grad ? root.inputs() : new Op[] { root };
+        try (var w = new LLVMWriter(file)) {
+            w.declare();
+
+            // mll signature
+            w.put("define void @mll(ptr noundef noalias %_input, ptr noundef noalias %_output) {\n");
+
+            // load vars
+            for (int v = 0, e = vars.length; v != e; ++v) {
+                w.put("\t%_in").put(v).put(" = getelementptr inbounds double, ptr %_input, i64 ").put(v).put('\n');
+                w.put('\t').value(vars[v]).put(" = load double, ptr %_in").put(v).put('\n');
+            }
+
+            w.body(order);
+
+            // store outputs
+            if (root instanceof Grad) {
+                for (int o = 0, e = outs.length; o != e; ++o) {
+                    w.put("\t%_output").put(o).put(" = getelementptr inbounds double, ptr %_output, i64 ").put(o);
+                    w.put("\n\tstore double ").value(outs[o]).put(", ptr %_output").put(o).put('\n');
+                }
+            } else {
+                w.put("\tstore double ").value(root).put(", ptr %_output\n");
+            }
+
+            // ret void
+            w.put("\tret void\n");
+            w.put("}\n");
+        }
+    }
+
+    /// Emits the counted loop `void @mll_batch(ptr %_in_soa, ptr %_out_soa, i64 %_n)`, see Op.llvmBatch(String).
+    static void emitBatch(Op root, Path file) throws IOException {
+        var order = root.topo();
+        var vars  = Op.freeVars(order);
+        var outs  = root instanceof Grad ? root.inputs() : new Op[] { root };
+        try (var w = new LLVMWriter(file)) {
+            w.declare();
+
+            // mll_batch signature
+            w.put("define void @mll_batch(ptr noalias nocapture readonly align 32 %_in_soa, ");
+            w.put("ptr noalias nocapture writeonly align 32 %_out_soa, i64 %_n) nounwind {\n");
+
+            // column base pointers
+            w.put("_entry:\n");
+            for (int v = 0, e = vars.length; v != e; ++v) {
+                w.put("\t%_in_off").put(v).put(" = mul nuw i64 %_n, ").put(v).put('\n');
+                w.put("\t%_in_col").put(v).put(" = getelementptr inbounds double, ptr %_in_soa, i64 %_in_off").put(v);
+                w.put('\n');
+            }
+            for (int o = 0, e = outs.length; o != e; ++o) {
+                w.put("\t%_out_off").put(o).put(" = mul nuw i64 %_n, ").put(o).put('\n');
+                w.put("\t%_out_col").put(o).put(" = getelementptr inbounds double, ptr %_out_soa, i64 %_out_off");
+                w.put(o).put('\n');
+            }
+            w.put("\t%_empty = icmp eq i64 %_n, 0\n");
+            w.put("\tbr i1 %_empty, label %_exit, label %_loop\n");
+
+            // loop body: load vars of point %_i, compute, store outputs
+            w.put("_loop:\n");
+            w.put("\t%_i = phi i64 [ 0, %_entry ], [ %_next, %_loop ]\n");
+            for (int v = 0, e = vars.length; v != e; ++v) {
+                w.put("\t%_in").put(v).put(" = getelementptr inbounds double, ptr %_in_col").put(v).put(", i64 %_i\n");
+                w.put('\t').value(vars[v]).put(" = load double, ptr %_in").put(v).put(", align 8\n");
+            }
+            w.body(order);
+            for (int o = 0, e = outs.length; o != e; ++o) {
+                w.put("\t%_out").put(o).put(" = getelementptr inbounds double, ptr %_out_col").put(o).put(", i64 %_i\n");
+                w.put("\tstore double ").value(outs[o]).put(", ptr %_out").put(o).put(", align 8\n");
+            }
+            w.put("\t%_next = add nuw i64 %_i, 1\n");
+            w.put("\t%_done = icmp eq i64 %_next, %_n\n");
+            w.put("\tbr i1 %_done, label %_exit, label %_loop, !llvm.loop !0\n");
+
+            w.put("_exit:\n");
+            w.put("\tret void\n");
+            w.put("}\n");
+            w.put('\n');
+            w.put("!0 = distinct !{!0, !1}\n");
+            w.put("!1 = !{!\"llvm.loop.vectorize.enable\", i1 true}\n");
+        }
+    }
+
+    /// Declares the LLVM intrinsics we might use.
+    private void declare() throws IOException {
+        put("declare double @llvm.pow.f64(double %Val, double %Power)\n");
+        put("declare double @llvm.log.f64(double %Val)\n");
+        put("declare double @llvm.exp.f64(double %Val)\n");
+        put("declare double @llvm.sin.f64(double %Val)\n");
+        put("declare double @llvm.cos.f64(double %Val)\n");
+        put("declare double @llvm.fma.f64(double %a, double %b, double %c)\n");
+        put('\n');
+    }
+
+    /// One instruction per Op in @p order; Lit%s, Var%s, and Grad%s don't compute anything.
+    private void body(Op[] order) throws IOException {
+        for (var op : order) {
+            switch (op.kind()) {
+                case Lit, Var, Grad -> {}
+                case Add -> binary(op, "fadd double ");
+                case Sub -> binary(op, "fsub double ");
+                case Mul -> binary(op, "fmul double ");
+                case Div -> binary(op, "fdiv double ");
+                case Pow -> intrinsic(op, "pow");
+                case Neg -> put('\t').value(op).put(" = fneg double ").value(op.input(0)).put('\n');
+                case Exp -> intrinsic(op, "exp");
+                case Log -> intrinsic(op, "log");
+                case Sin -> intrinsic(op, "sin");
+                case Cos -> intrinsic(op, "cos");
+                case Fma -> intrinsic(op, "fma");
+                case Sum -> reduce(op, "fadd double ");
+                case Product -> reduce(op, "fmul double ");
+            }
+        }
+    }
+
+    private void binary(Op op, String instr) throws IOException {
+        put('\t').value(op).put(" = ").put(instr).value(op.input(0)).put(", ").value(op.input(1)).put('\n');
+    }
+
+    /// Pairwise reduction of the n-ary @p op - see NaryOp.reduce - with partial results named `%_<id>.<t>`.
+    private void reduce(Op op, String instr) throws IOException {
+        temp_ = 0;
+        reduce(op, instr, 0, op.numInputs(), true);
+    }
+
+    /// Emits the reduction of inputs `[lo, hi)` and returns the number of its temporary or `~lo` for a single input.
+    private int reduce(Op op, String instr, int lo, int hi, boolean root) throws IOException {
+        if (hi - lo == 1) return ~lo;
+        int mid = (lo + hi) >>> 1;
+        int x   = reduce(op, instr, lo, mid, false);
+        int y   = reduce(op, instr, mid, hi, false);
+        int t   = root ? 0 : temp_++;
+        put('\t');
+        if (root) value(op); else temp(op, t);
+        put(" = ").put(instr);
+        operand(op, x).put(", ");
+        operand(op, y).put('\n');
+        return t;
+    }
+
+    private LLVMWriter operand(Op op, int v) throws IOException { return v < 0 ? value(op.input(~v)) : temp(op, v); }
+    private LLVMWriter temp(Op op, int t) throws IOException { return put("%_").put(op.id()).put('.').put(t); }
+
+    private void intrinsic(Op op, String name) throws IOException {
+        put('\t').value(op).put(" = call double @llvm.").put(name).put(".f64(");
+        for (int i = 0, e = op.numInputs(); i != e; ++i) {
+            if (i != 0) put(", ");
+            put("double ").value(op.input(i));
+        }
+        put(")\n");
+    }
+
+    /*
+     * raw output
+     */
+
+    /// The SSA value of @p op: `%_<id>` or the exact bits of a Lit as `0x<16 hex digits>`.
+    private LLVMWriter value(Op op) throws IOException {
+        if (op instanceof Lit lit) {
+            long bits = Double.doubleToLongBits(lit.get());
+            reserve(18);
+            buf_[pos_++] = '0';
+            buf_[pos_++] = 'x';
+            for (int shift = 60; shift >= 0; shift -= 4) buf_[pos_++] = HEX[(int) (bits >>> shift) & 0xf];
+            return this;
+        }
+        return put("%_").put(op.id());
+    }
+
+    /// Only used for our own ASCII templates.
+    private LLVMWriter put(String s) throws IOException {
+        for (int i = 0, n = s.length(); i != n;) {
+            if (pos_ == CAPACITY) flush();
+            for (int e = Math.min(n, i + CAPACITY - pos_); i != e; ++i) buf_[pos_++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    private LLVMWriter put(char c) throws IOException {
+        reserve(1);
+        buf_[pos_++] = (byte) c;
+        return this;
+    }
+
+    private LLVMWriter put(int x) throws IOException {
+        int n = 0;
+        do {
+            digits_[n++] = (byte) ('0' + x % 10);
+            x /= 10;
+        } while (x != 0);
+        reserve(n);
+        while (n != 0) buf_[pos_++] = digits_[--n];
+        return this;
+    }
+
+    private void reserve(int n) throws IOException {
+        if (CAPACITY - pos_ < n) flush();
+    }
+
+    private void flush() throws IOException {
+        var buf = ByteBuffer.wrap(buf_, 0, pos_);
+        while (buf.hasRemaining()) channel_.write(buf);
+        pos_ = 0;
+    }
+
+    @Override public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel_.close();
+        }
+    }
+}
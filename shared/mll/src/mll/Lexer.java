@@ -0,0 +1,226 @@
+package mll;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import mll.Tok.Tag;
+
+/// Scans mll source straight out of a ByteBuffer - typically a memory-mapped file - into Tok%ens.
+///
+/// Only absolute reads on the buffer, so there is neither a copy of the input nor a String per token:
+/// Identifiers are interned by hashing their bytes, so each distinct name becomes a String exactly once, and keywords
+/// are found in the same table. Literals are converted from their digits directly; only those outside the exact fast
+/// path - more than 15 significant digits or a large exponent - go through Double.parseDouble.
+/// Comments run from `#` to the end of the line.
+final class Lexer {
+    private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13,
+            1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private final String     file_;
+    private final ByteBuffer buf_;
+    private final int        end_;
+    private int              pos_ = 0;
+    private int              row_ = 1;
+    private int              col_ = 1;
+
+    // symbol table: open addressing over the bytes of each name
+    private String[] names_ = new String[256];
+    private Tag[]    tags_  = new Tag[256]; // keyword or M_id
+    private int[]    hashes_ = new int[256];
+    private int      numNames_;
+
+    Lexer(String file, ByteBuffer buf) {
+        file_ = file;
+        buf_  = buf;
+        end_  = buf.limit();
+        for (var tag : new Tag[] { Tag.K_let, Tag.K_log, Tag.K_exp, Tag.K_sin, Tag.K_cos }) {
+            var name = tag.toString();
+            intern(name.getBytes(StandardCharsets.US_ASCII), name, tag);
+        }
+    }
+
+    String file() { return file_; }
+
+    /// The next Tok; M_eof over and over once the input is exhausted.
+    Tok lex() {
+        skip();
+        var begin = new Pos(row_, col_);
+        if (pos_ == end_) return new Tok(new Loc(file_, begin, begin), Tag.M_eof);
+
+        int c = buf_.get(pos_);
+        if (isLetter(c)) return id(begin);
+        if (isDigit(c) || (c == '.' && pos_ + 1 != end_ && isDigit(buf_.get(pos_ + 1)))) return lit(begin);
+
+        var tag = switch (c) {
+            case '+' -> Tag.O_add;
+            case '-' -> Tag.O_sub;
+            case '*' -> Tag.O_mul;
+            case '/' -> Tag.O_div;
+            case '^' -> Tag.O_pow;
+            case '(' -> Tag.D_paren_l;
+            case ')' -> Tag.D_paren_r;
+            case '=' -> Tag.T_eq;
+            case ';' -> Tag.T_semicolon;
+            default -> null;
+        };
+        if (tag == null) {
+            throw error(new Loc(file_, begin, begin), c >= ' ' && c < 0x7f
+                    ? String.format("invalid character '%c'", (char) c)
+                    : String.format("invalid byte 0x%02x", c & 0xff));
+        }
+        next();
+        return new Tok(loc(begin), tag);
+    }
+
+    /// An error at @p loc in the usual `file:row:col: message` form.
+    static IllegalArgumentException error(Loc loc, String msg) { return new IllegalArgumentException(loc + ": " + msg); }
+
+    /*
+     * scanning
+     */
+
+    /// Skips white space and comments.
+    private void skip() {
+        while (pos_ != end_) {
+            int c = buf_.get(pos_);
+            if (c == '#') {
+                while (pos_ != end_ && buf_.get(pos_) != '\n') next();
+            } else if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                next();
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void next() {
+        if (buf_.get(pos_++) == '\n') {
+            ++row_;
+            col_ = 1;
+        } else {
+            ++col_;
+        }
+    }
+
+    /// Identifiers and tokens never span lines, so the end is just a column further.
+    private Loc loc(Pos begin) { return new Loc(file_, begin, new Pos(row_, col_ - 1)); }
+
+    private Tok id(Pos begin) {
+        int start = pos_;
+        int hash  = 0;
+        while (pos_ != end_ && (isLetter(buf_.get(pos_)) || isDigit(buf_.get(pos_)))) {
+            hash = 31 * hash + buf_.get(pos_);
+            ++pos_;
+        }
+        col_ += pos_ - start;
+
+        int len  = pos_ - start;
+        int mask = names_.length - 1;
+        int i    = hash & mask;
+        for (String name; (name = names_[i]) != null; i = (i + 1) & mask) {
+            if (hashes_[i] == hash && matches(name, start, len)) {
+                var tag = tags_[i];
+                return tag == Tag.M_id ? new Tok(loc(begin), name) : new Tok(loc(begin), tag);
+            }
+        }
+
+        var bytes = new byte[len];
+        buf_.get(start, bytes);
+        var name = new String(bytes, StandardCharsets.US_ASCII);
+        intern(bytes, name, Tag.M_id);
+        return new Tok(loc(begin), name);
+    }
+
+    private boolean matches(String name, int start, int len) {
+        if (name.length() != len) return false;
+        for (int j = 0; j != len; ++j)
+            if (name.charAt(j) != buf_.get(start + j)) return false;
+        return true;
+    }
+
+    private void intern(byte[] bytes, String name, Tag tag) {
+        if (2 * (numNames_ + 1) > names_.length) grow();
+        int hash = 0;
+        for (byte b : bytes) hash = 31 * hash + b;
+        int mask = names_.length - 1;
+        int i    = hash & mask;
+        while (names_[i] != null) i = (i + 1) & mask;
+        names_[i]  = name;
+        tags_[i]   = tag;
+        hashes_[i] = hash;
+        ++numNames_;
+    }
+
+    private void grow() {
+        var names  = names_;
+        var tags   = tags_;
+        var hashes = hashes_;
+        names_  = new String[names.length * 2];
+        tags_   = new Tag[names.length * 2];
+        hashes_ = new int[names.length * 2];
+        int mask = names_.length - 1;
+        for (int j = 0, e = names.length; j != e; ++j) {
+            if (names[j] == null) continue;
+            int i = hashes[j] & mask;
+            while (names_[i] != null) i = (i + 1) & mask;
+            names_[i]  = names[j];
+            tags_[i]   = tags[j];
+            hashes_[i] = hashes[j];
+        }
+    }
+
+    /// `digits [. digits] [(e|E) [+|-] digits]` or `. digits ...`
+    private Tok lit(Pos begin) {
+        int     start    = pos_;
+        long    mantissa = 0;
+        int     digits   = 0; // significant digits in mantissa
+        int     exp10    = 0;
+        boolean exact    = true;
+        for (boolean frac = false;; ++pos_) {
+            int c = pos_ != end_ ? buf_.get(pos_) : -1;
+            if (isDigit(c)) {
+                if (mantissa == 0 && c == '0') {
+                    if (frac) --exp10; // leading zeros aren't significant
+                } else if (digits < 18) {
+                    mantissa = 10 * mantissa + (c - '0');
+                    ++digits;
+                    if (frac) --exp10;
+                } else {
+                    exact = false; // digits beyond what a long holds
+                    if (!frac) ++exp10;
+                }
+            } else if (c == '.' && !frac) {
+                frac = true;
+            } else {
+                break;
+            }
+        }
+
+        if (pos_ != end_ && (buf_.get(pos_) | 0x20) == 'e') {
+            int save = pos_++;
+            int sign = 1;
+            if (pos_ != end_ && (buf_.get(pos_) == '+' || buf_.get(pos_) == '-')) sign = buf_.get(pos_++) == '-' ? -1 : 1;
+            if (pos_ == end_ || !isDigit(buf_.get(pos_))) {
+                pos_ = save; // not an exponent after all, e.g. `2e` - leave `e` to the next token
+            } else {
+                int e = 0;
+                while (pos_ != end_ && isDigit(buf_.get(pos_))) e = Math.min(100_000, 10 * e + (buf_.get(pos_++) - '0'));
+                exp10 += sign * e;
+            }
+        }
+        col_ += pos_ - start;
+
+        double f;
+        if (exact && digits <= 15 && Math.abs(exp10) <= 22) { // both exact, so is one multiplication or division
+            f = exp10 < 0 ? mantissa / POW10[-exp10] : mantissa * POW10[exp10];
+        } else {
+            var bytes = new byte[pos_ - start];
+            buf_.get(start, bytes);
+            f = Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+        }
+        return new Tok(loc(begin), f);
+    }
+
+    private static boolean isLetter(int c) { return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_'; }
+    private static boolean isDigit(int c) { return c >= '0' && c <= '9'; }
+}
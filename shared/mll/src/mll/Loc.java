@@ -0,0 +1,20 @@
+package mll;
+
+class Loc {
+    Loc(String file, Pos begin, Pos finis) {
+        this.file  = file;
+        this.begin = begin;
+        this.finis = finis;
+    }
+
+    Loc copy() { return new Loc(file, begin.clone(), finis.clone()); }
+
+    @Override public String toString() {
+        if (begin.equals(finis)) return String.format("%s:%s", file, begin);
+        return String.format("%s:%s-%s", file, begin, finis);
+    }
+
+    String file;
+    Pos    begin;
+    Pos    finis;
+}
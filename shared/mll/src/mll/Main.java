@@ -1,6 +1,10 @@
 package mll;
 
 import java.io.IOException;
+import java.lang.ref.Reference;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
 
 public class Main {
 	public static void testSetup() throws IOException {
@@ -27,7 +31,141 @@ public class Main {
 		Util.saveLLVMOpt("helloworld", 3);
 	}
 
+	/// Emits a chain of @p n terms - deep enough to overflow any recursive emitter - and reports throughput.
+	public static void benchLLVM(int n) throws IOException {
+		var dag = new DAG();
+		var x   = dag.x();
+		Op  f   = dag.lit0();
+		for (int i = 1; i <= n; ++i) f = f.add(x.mul(dag.lit(i)).sin());
+		Files.createDirectories(Paths.get("out/llvm"));
+
+		for (int run = 0; run != 5; ++run) {
+			long start = System.nanoTime();
+			f.llvm("out/llvm/bench.ll");
+			double secs = (System.nanoTime() - start) * 1e-9;
+			System.out.printf("emitted %d nodes in %.3fs: %.2fM nodes/s%n", dag.size(), secs, dag.size() / secs * 1e-6);
+		}
+	}
+
+	/// Builds the gradient of a chain of @p n terms and reports the heap it retains per Op.
+	public static void benchDAG(int n) {
+		long before = usedHeap();
+		var  dag    = new DAG();
+		var  x      = dag.x();
+		var  y      = dag.y();
+		Op   f      = dag.lit0();
+		for (int i = 1; i <= n; ++i) f = f.add(x.mul(dag.lit(i)).sin().mul(y));
+		var grad = f.backwards();
+		long after = usedHeap();
+		System.out.printf("%d nodes retain %.1f MiB: %.1f bytes/node%n", dag.size(), (after - before) / 1048576.0,
+				(double) (after - before) / dag.size());
+		Reference.reachabilityFence(grad); // measure with the gradient still alive
+	}
+
+	/// Parses a synthetic program of about @p mb MiB - a long chain of let-bindings - and reports throughput.
+	public static void benchParse(int mb) throws IOException {
+		var file = Paths.get("out/bench.mll");
+		Files.createDirectories(file.getParent());
+		try (var out = Files.newBufferedWriter(file)) {
+			out.write("# synthetic benchmark\nlet v0 = x;\n");
+			long size = 0;
+			int  i    = 1;
+			for (; size < mb * 1048576L; ++i) {
+				var line = String.format("let v%d = sin(v%d * %d.%03de-1) + x^2 * (v%d - y / %d) - exp(-z);%n", i, i - 1,
+						i % 97, i % 1000, i / 2, i % 13 + 1);
+				out.write(line);
+				size += line.length();
+			}
+			out.write(String.format("v%d%n", i - 1));
+		}
+
+		double mib = Files.size(file) / 1048576.0;
+		for (int run = 0; run != 5; ++run) {
+			var  dag   = new DAG();
+			long start = System.nanoTime();
+			Parser.parse(dag, file);
+			double secs = (System.nanoTime() - start) * 1e-9;
+			System.out.printf("parsed %.1f MiB into %d nodes in %.3fs: %.1f MiB/s%n", mib, dag.size(), secs, mib / secs);
+		}
+	}
+
+	/// Saves the gradient of a chain of @p n terms and reports how long loading it takes.
+	public static void benchLoad(int n) throws IOException {
+		var dag = new DAG();
+		var x   = dag.x();
+		var y   = dag.y();
+		Op  f   = dag.lit0();
+		for (int i = 1; i <= n; ++i) f = f.add(x.mul(dag.lit(i)).sin().mul(y));
+		var grad = f.backwards();
+		var file = Paths.get("out/bench.dag");
+		Files.createDirectories(file.getParent());
+		DAGFile.save(file, grad);
+
+		for (int run = 0; run != 5; ++run) {
+			long start = System.nanoTime();
+			var  roots = DAGFile.load(file);
+			double secs = (System.nanoTime() - start) * 1e-9;
+			System.out.printf("loaded %d nodes (%.1f MiB) in %.1fms%n", roots[0].dag().size(), Files.size(file) / 1048576.0,
+					secs * 1e3);
+		}
+	}
+
+	/// Keeps the gradient of a chain of @p n coupled terms up to date while changing one Var per step and compares
+	/// with evaluating everything each time.
+	public static void benchIncremental(int n) {
+		var dag  = new DAG();
+		var vars = new Var[n];
+		for (int i = 0; i != n; ++i) vars[i] = dag.var(String.format("v%07d", i));
+		var terms = new Op[n - 1];
+		for (int i = 0; i != n - 1; ++i) terms[i] = vars[i].sin().mul(vars[i + 1]);
+		var tape = Sum.c(terms).backwards().compile();
+		var at   = new double[n];
+		var out  = new double[tape.numOutputs()];
+		var incr = new Incremental(tape, at);
+		int steps = 2_000;
+
+		for (int run = 0; run != 5; ++run) {
+			var  rnd   = new Random(run);
+			long start = System.nanoTime();
+			for (int s = 0; s != steps; ++s) {
+				at[rnd.nextInt(n)] = rnd.nextDouble();
+				tape.eval(at, out);
+			}
+			double full = (System.nanoTime() - start) * 1e-9 / steps;
+
+			rnd = new Random(run);
+			long before = incr.numSteps();
+			start = System.nanoTime();
+			for (int s = 0; s != steps; ++s) {
+				int i = rnd.nextInt(n);
+				incr.set(i, rnd.nextDouble());
+				out[0]     = incr.get();
+				out[i + 1] = incr.get(i + 1);
+			}
+			double part = (System.nanoTime() - start) * 1e-9 / steps;
+			System.out.printf("%d instrs: full %.1fus, incremental %.2fus (%.1f instrs) per step: %.0fx%n",
+					tape.numInstrs(), full * 1e6, part * 1e6, (double) (incr.numSteps() - before) / steps, full / part);
+		}
+	}
+
+	private static long usedHeap() {
+		var rt = Runtime.getRuntime();
+		for (int i = 0; i != 3; ++i) System.gc();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
 	public static void main(String args[]) throws IOException {
-		testSetup();
+		if (args.length == 2 && args[0].equals("bench-llvm"))
+			benchLLVM(Integer.parseInt(args[1]));
+		else if (args.length == 2 && args[0].equals("bench-dag"))
+			benchDAG(Integer.parseInt(args[1]));
+		else if (args.length == 2 && args[0].equals("bench-parse"))
+			benchParse(Integer.parseInt(args[1]));
+		else if (args.length == 2 && args[0].equals("bench-load"))
+			benchLoad(Integer.parseInt(args[1]));
+		else if (args.length == 2 && args[0].equals("bench-incr"))
+			benchIncremental(Integer.parseInt(args[1]));
+		else
+			testSetup();
 	}
 }
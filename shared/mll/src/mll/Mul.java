@@ -1,9 +1,5 @@
 package mll;
 
-import java.io.IOException;
-import java.io.Writer;
-import java.util.HashMap;
-
 public class Mul extends BinOp {
     Mul(Op lhs, Op rhs) { super(lhs, rhs); }
 
@@ -27,20 +23,13 @@ public class Mul extends BinOp {
         var reassoc = reassociate(Mul.class, x, y, (a, b) -> Mul.c(a, b));
         if (reassoc != null) return reassoc;
 
-        return dag.unify(new Mul(x, y));
+        return dag.unify(Kind.Mul, x, y);
     }
 
+    @Override Kind kind() { return Kind.Mul; }
     @Override public String opString() { return "*"; }
     @Override protected double eval_(double[] inVals) { return inVals[0] * inVals[1]; }
 
-    @Override protected String llvm_(HashMap<Op, String> map, Writer writer) throws IOException {
-        var l = lhs().llvm(map, writer);
-        var r = rhs().llvm(map, writer);
-        var x = String.format("%%_%d", id());
-        writer.append(String.format("\t%s = fmul double %s, %s\n", x, l, r));
-        return x;
-    }
-
     @Override protected Op diff(int inputIdx) {
         // (x * y)' = x' * y + x * y'
         var l = inputIdx == 0 ? rhs() : lit0(); // 1 * y + x * 0
@@ -0,0 +1,78 @@
+package mll;
+
+import java.util.Arrays;
+import java.util.function.DoubleBinaryOperator;
+
+/// An associative and commutative operator over three or more distinct inputs in canonical order.
+/// Like a Grad, it keeps its inputs itself. All backends reduce it pairwise, i.e. as a balanced tree via reduce().
+abstract class NaryOp extends Op {
+    private final Op[] inputs_;
+
+    NaryOp(Op[] inputs) {
+        super(inputs[0].dag(), inputs);
+        inputs_ = inputs;
+    }
+
+    @Override public Op[] inputs() { return inputs_; }
+    @Override public Op input(int i) { return inputs_[i]; }
+    @Override public int numInputs() { return inputs_.length; }
+
+    /// Pairwise reduction of `vals[lo, hi)`; each backend splits at the same `mid`, so all of them round alike.
+    static double reduce(double[] vals, int lo, int hi, DoubleBinaryOperator o) {
+        if (hi - lo == 1) return vals[lo];
+        int mid = (lo + hi) >>> 1;
+        return o.applyAsDouble(reduce(vals, lo, mid, o), reduce(vals, mid, hi, o));
+    }
+
+    @Override public String toString() {
+        var res = new StringBuilder("(");
+        for (int i = 0, e = inputs_.length; i != e; ++i) {
+            if (i != 0) res.append(' ').append(opString()).append(' ');
+            res.append(inputs_[i]);
+        }
+        return res.append(')').toString();
+    }
+
+    /// Operands of a Sum or Product being canonicalized: distinct bases, each with a folded weight - the coefficient
+    /// in a Sum, the exponent in a Product.
+    static final class Terms {
+        private Op[]     bases_   = new Op[8];
+        private double[] weights_ = new double[8];
+        private int      size_;
+
+        void add(Op base, double weight) {
+            if (size_ == bases_.length) {
+                bases_   = Arrays.copyOf(bases_, size_ * 2);
+                weights_ = Arrays.copyOf(weights_, size_ * 2);
+            }
+            bases_[size_]     = base;
+            weights_[size_++] = weight;
+        }
+
+        /// Sorts the bases by ID and merges duplicates by adding their weights.
+        void normalize() {
+            var keys = new long[size_];
+            for (int i = 0; i != size_; ++i) keys[i] = (long) bases_[i].id() << 32 | i;
+            Arrays.sort(keys);
+            var bases   = new Op[size_];
+            var weights = new double[size_];
+            int n       = 0;
+            for (long key : keys) {
+                int i = (int) key;
+                if (n != 0 && bases[n - 1] == bases_[i]) {
+                    weights[n - 1] += weights_[i];
+                } else {
+                    bases[n]     = bases_[i];
+                    weights[n++] = weights_[i];
+                }
+            }
+            bases_   = bases;
+            weights_ = weights;
+            size_    = n;
+        }
+
+        int size() { return size_; }
+        Op base(int i) { return bases_[i]; }
+        double weight(int i) { return weights_[i]; }
+    }
+}
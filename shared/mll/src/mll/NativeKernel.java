@@ -0,0 +1,149 @@
+package mll;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/// Runs the `@mll(ptr %_input, ptr %_output)` function emitted by Op.llvm in-process via `java.lang.foreign`.
+///
+/// The FFM API is final as of JDK 22 but still a preview API in JDK 21 which this project targets.
+/// So we bind it reflectively via MethodHandles: This compiles without `--enable-preview` and works on any JDK 21+.
+/// Segments are typed as Object here for the same reason.
+public final class NativeKernel implements Kernel {
+    private final Object       arena_;  // keeps the library and the buffers alive
+    private final MethodHandle mll_;    // (MemorySegment in, MemorySegment out)void adapted to (Object, Object)void
+    private final int          numIns_;
+    private final int          numOuts_;
+
+    private final ThreadLocal<Object[]> buffers_ = ThreadLocal.withInitial(this::allocateBuffers);
+
+    private NativeKernel(Object arena, MethodHandle mll, int numIns, int numOuts) {
+        arena_   = arena;
+        mll_     = mll;
+        numIns_  = numIns;
+        numOuts_ = numOuts;
+    }
+
+    /// Loads the function `mll` from the shared library @p lib.
+    public static NativeKernel load(String lib, int numIns, int numOuts) {
+        try {
+            // invokeExact takes its signature from the static argument types and the cast of the result
+            var arena  = (Object) FFM.OF_AUTO.invokeExact();
+            var lookup = (Object) FFM.LIBRARY_LOOKUP.invokeExact((Object) Path.of(lib).toAbsolutePath(), arena);
+            var sym    = (Optional<?>) (Object) FFM.FIND.invokeExact(lookup, (Object) "mll");
+            if (sym.isEmpty()) throw new IllegalArgumentException("no function 'mll' in " + lib);
+            var fn     = (Object) sym.get();
+            var mll    = (MethodHandle) (Object) FFM.DOWNCALL.invokeExact(FFM.LINKER, fn, FFM.VOID_PTR_PTR);
+            return new NativeKernel(arena, mll.asType(MethodType.methodType(void.class, Object.class, Object.class)),
+                    numIns, numOuts);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("could not load " + lib, t);
+        }
+    }
+
+    /// The downcall handle as `(Object in, Object out)void` where both are expected to be native MemorySegments of
+    /// `double`s, e.g. from allocate(int). Use it to evaluate without copying.
+    public MethodHandle handle() { return mll_; }
+
+    /// Allocates a native segment of @p n `double`s that lives as long as `this` is reachable.
+    public Object allocate(int n) {
+        try {
+            return (Object) FFM.ALLOCATE.invokeExact(arena_, (long) n * Double.BYTES, (long) Double.BYTES);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    @Override public double apply(double[] in) {
+        var buf = call(in);
+        try {
+            return (double) FFM.GET.invokeExact(buf[1], FFM.JAVA_DOUBLE, 0L);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    @Override public void apply(double[] in, double[] out) {
+        var buf = call(in);
+        try {
+            FFM.COPY_OUT.invokeExact(buf[1], FFM.JAVA_DOUBLE, 0L, (Object) out, 0, numOuts_);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private Object[] call(double[] in) {
+        if (in.length != numIns_)
+            throw new IllegalArgumentException("number of provided values does not match number of free variables");
+        var buf = buffers_.get();
+        try {
+            FFM.COPY_IN.invokeExact((Object) in, 0, buf[0], FFM.JAVA_DOUBLE, 0L, numIns_);
+            mll_.invokeExact(buf[0], buf[1]);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+        return buf;
+    }
+
+    private Object[] allocateBuffers() { return new Object[] { allocate(Math.max(1, numIns_)), allocate(numOuts_) }; }
+
+    /// Reflectively bound entry points into `java.lang.foreign`, all adapted to Object-typed signatures.
+    private static final class FFM {
+        static final MethodHandle OF_AUTO, LIBRARY_LOOKUP, FIND, DOWNCALL, ALLOCATE, COPY_IN, COPY_OUT, GET;
+        static final Object       LINKER, VOID_PTR_PTR, JAVA_DOUBLE;
+
+        static {
+            try {
+                var lookup     = MethodHandles.lookup(); // not publicLookup: libraryLookup is caller-sensitive
+                var arena      = Class.forName("java.lang.foreign.Arena");
+                var symbols    = Class.forName("java.lang.foreign.SymbolLookup");
+                var linker     = Class.forName("java.lang.foreign.Linker");
+                var option     = Class.forName("java.lang.foreign.Linker$Option");
+                var segment    = Class.forName("java.lang.foreign.MemorySegment");
+                var layout     = Class.forName("java.lang.foreign.MemoryLayout");
+                var value      = Class.forName("java.lang.foreign.ValueLayout");
+                var descriptor = Class.forName("java.lang.foreign.FunctionDescriptor");
+                var ofDouble   = Class.forName("java.lang.foreign.ValueLayout$OfDouble");
+                var obj        = Object.class;
+
+                OF_AUTO        = generic(lookup.unreflect(arena.getMethod("ofAuto")));
+                LIBRARY_LOOKUP = generic(lookup.unreflect(symbols.getMethod("libraryLookup", Path.class, arena)));
+                FIND           = generic(lookup.unreflect(symbols.getMethod("find", String.class)));
+                ALLOCATE       = generic(lookup.unreflect(arena.getMethod("allocate", long.class, long.class)));
+                COPY_IN        = generic(lookup.unreflect(segment.getMethod("copy", obj, int.class, segment, value,
+                        long.class, int.class)));
+                COPY_OUT       = generic(lookup.unreflect(segment.getMethod("copy", segment, value, long.class, obj,
+                        int.class, int.class)));
+                GET            = generic(lookup.unreflect(segment.getMethod("get", ofDouble, long.class)));
+
+                var downcall = lookup.unreflect(linker.getMethod("downcallHandle", segment, descriptor,
+                        option.arrayType()));
+                DOWNCALL     = generic(MethodHandles.insertArguments(downcall, 3, Array.newInstance(option, 0)));
+
+                LINKER       = linker.getMethod("nativeLinker").invoke(null);
+                JAVA_DOUBLE  = value.getField("JAVA_DOUBLE").get(null);
+                var ptr      = value.getField("ADDRESS").get(null);
+                var layouts  = (Object[]) Array.newInstance(layout, 2);
+                layouts[0]   = ptr;
+                layouts[1]   = ptr;
+                VOID_PTR_PTR = descriptor.getMethod("ofVoid", layout.arrayType()).invoke(null, (Object) layouts);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        /// Adapts @p mh to Object for all reference types so we can use invokeExact without naming FFM types.
+        private static MethodHandle generic(MethodHandle mh) {
+            var type = mh.type();
+            for (int i = 0, e = type.parameterCount(); i != e; ++i)
+                if (!type.parameterType(i).isPrimitive()) type = type.changeParameterType(i, Object.class);
+            if (!type.returnType().isPrimitive()) type = type.changeReturnType(Object.class);
+            return mh.asType(type);
+        }
+    }
+}
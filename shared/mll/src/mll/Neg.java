@@ -1,9 +1,5 @@
 package mll;
 
-import java.io.IOException;
-import java.io.Writer;
-import java.util.HashMap;
-
 public class Neg extends UnOp {
     Neg(Op arg) { super(arg); }
 
@@ -11,18 +7,12 @@ public class Neg extends UnOp {
         var dag = x.dag();
         if (x instanceof Lit l) return dag.lit(-l.get());
         if (x instanceof Neg neg) return neg.arg(); // --x = x
-        return dag.unify(new Neg(x));
+        return dag.unify(Kind.Neg, x);
     }
 
+    @Override Kind kind() { return Kind.Neg; }
     @Override public String toString() { return String.format("-(%s)", arg()); }
     @Override protected double eval_(double[] inVals) { return -inVals[0]; }
 
-    @Override protected String llvm_(HashMap<Op, String> map, Writer writer) throws IOException {
-        var a = arg().llvm(map, writer);
-        var x = String.format("%%_%d", id());
-        writer.append(String.format("\t%s = fsub double 0.0, %s\n", x, a));
-        return x;
-    }
-
     @Override protected Op diff(int inputIdx) { return lit(-1); }
 }
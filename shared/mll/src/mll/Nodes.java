@@ -0,0 +1,96 @@
+package mll;
+
+/// Struct-of-arrays storage for the Ops of a DAG, indexed by Op ID.
+///
+/// An Op itself only holds its Nodes and its ID; kind, input IDs, and literal bits live here in primitive arrays.
+/// So a BinOp costs a small object plus 13 bytes here instead of an object with its own `Op[]` of inputs.
+/// Slot `a` holds the ID of the first input or the high word of a Lit's bits, slot `b` the ID of the second input
+/// or the low word of a Lit's bits; unused slots are -1. A Grad keeps its n-ary inputs itself, an Fma its addend.
+///
+/// Storage is split into fixed-size pages, so growing never moves anything and a concurrent DAG only needs to lock
+/// when adding a page. Ops are published via the DAG's intern table, after their slots have been written.
+final class Nodes {
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE      = 1 << PAGE_BITS;
+    private static final int MASK      = PAGE - 1;
+
+    private static final class Page {
+        final byte[] kinds = new byte[PAGE];
+        final int[]  a     = new int[PAGE];
+        final int[]  b     = new int[PAGE];
+        final Op[]   ops   = new Op[PAGE];
+    }
+
+    private final DAG       dag_;
+    private volatile Page[] pages_ = new Page[0];
+
+    Nodes(DAG dag) { dag_ = dag; }
+
+    DAG dag() { return dag_; }
+
+    Kind kind(int id) { return Kind.VALUES[page(id).kinds[id & MASK]]; }
+    int a(int id) { return page(id).a[id & MASK]; }
+    int b(int id) { return page(id).b[id & MASK]; }
+    long bits(int id) { return ((long) a(id) << 32) | (b(id) & 0xffffffffL); }
+    Op op(int id) { return page(id).ops[id & MASK]; }
+
+    /// Records @p op with ID @p id and up to two of its @p inputs.
+    void add(int id, Kind kind, Op op, Op[] inputs) {
+        var page = ensure(id);
+        int i    = id & MASK;
+        page.kinds[i] = (byte) kind.ordinal();
+        page.a[i]     = inputs.length > 0 ? inputs[0].id() : -1;
+        page.b[i]     = inputs.length > 1 ? inputs[1].id() : -1;
+        page.ops[i]   = op;
+    }
+
+    /// Stores the @p bits of the Lit with ID @p id.
+    void setBits(int id, long bits) {
+        var page = page(id);
+        page.a[id & MASK] = (int) (bits >>> 32);
+        page.b[id & MASK] = (int) bits;
+    }
+
+    /// Copies the slot of @p op from @p from into slot @p id of `this`, translating input IDs via @p remap.
+    void copy(int id, Op op, Nodes from, int[] remap) {
+        var page = ensure(id);
+        int i    = id & MASK;
+        int old  = op.id();
+        var kind = op.kind();
+        int a    = from.a(old);
+        int b    = from.b(old);
+        page.kinds[i] = (byte) kind.ordinal();
+        page.a[i]     = kind == Kind.Lit || a < 0 ? a : remap[a];
+        page.b[i]     = kind == Kind.Lit || b < 0 ? b : remap[b];
+        page.ops[i]   = op;
+    }
+
+    /// Drops the reference to the Op in slot @p id so it can be garbage collected.
+    void clear(int id) { page(id).ops[id & MASK] = null; }
+
+    /// Bytes held by the pages; each page is allocated in full.
+    long footprint() {
+        long perSlot = 1 + 4 + 4 + 4; // kind, a, b, and a compressed reference to the Op
+        return pages_.length * PAGE * perSlot;
+    }
+
+    private Page page(int id) { return pages_[id >>> PAGE_BITS]; }
+
+    private Page ensure(int id) {
+        int p     = id >>> PAGE_BITS;
+        var pages = pages_;
+        if (p < pages.length && pages[p] != null) return pages[p];
+        synchronized (this) {
+            pages = pages_;
+            if (p >= pages.length) {
+                var grown = new Page[Math.max(p + 1, pages.length * 2)];
+                System.arraycopy(pages, 0, grown, 0, pages.length);
+                pages = grown;
+            }
+            for (int q = 0; q <= p; ++q)
+                if (pages[q] == null) pages[q] = new Page();
+            pages_ = pages;
+            return pages[p];
+        }
+    }
+}
@@ -5,36 +5,61 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
-import java.util.TreeSet;
 import java.util.function.BinaryOperator;
 
 public abstract class Op {
-    protected int hash_;
-    private DAG   dag_;
+    private Nodes nodes_;
     private int   id_;
-    private Op[]  inputs_;
 
+    /// Kind, inputs, and literal bits are recorded in the DAG's Nodes; an Op is just a handle to its slot there.
     Op(DAG dag, Op... inputs) {
-        dag_    = dag;
-        id_     = dag.nextID();
-        inputs_ = inputs;
-        hash_   = Objects.hash(getClass().hashCode());
-        for (var input : inputs) hash_ = Objects.hash(hash_, input.id());
+        nodes_ = dag.nodes();
+        id_    = dag.nextID();
+        nodes_.add(id_, kind(), this, inputs);
     }
 
     /*
      * getters
      */
 
-    public DAG dag() { return dag_; }
+    public DAG dag() { return nodes_.dag(); }
+    Nodes nodes() { return nodes_; }
     public int id() { return id_; }
-    public Op[] inputs() { return inputs_; }
-    public Op input(int i) { return inputs_[i]; }
-    public int numInputs() { return inputs_.length; }
-    @Override public int hashCode() { return hash_; }
+
+    /// Only for DAG.collect, which renumbers the live Ops.
+    void moveTo(Nodes nodes, int id) {
+        nodes_ = nodes;
+        id_    = id;
+    }
+    abstract Kind kind();
+
+    public Op[] inputs() {
+        var res = new Op[numInputs()];
+        for (int i = 0, e = res.length; i != e; ++i) res[i] = input(i);
+        return res;
+    }
+
+    public Op input(int i) {
+        Objects.checkIndex(i, numInputs());
+        return nodes_.op(i == 0 ? nodes_.a(id_) : nodes_.b(id_));
+    }
+
+    public int numInputs() { return 0; }
+
+    @Override public int hashCode() {
+        int hash = DAG.hash(kind());
+        for (int i = 0, e = numInputs(); i != e; ++i) hash = DAG.hash(hash, input(i).id());
+        return hash;
+    }
 
     @Override public boolean equals(Object obj) {
         boolean result = getClass() == obj.getClass();
@@ -123,40 +148,120 @@ public abstract class Op {
     }
 
     /*
-     * Compute free Vars and outputs
+     * Compute free Vars
      */
 
-    record Output(Op op, int index) {
-        @Override public boolean equals(Object obj) {
-            return (obj instanceof Output out) && op() == out.op() && index == out.index();
-        }
-
-        @Override public int hashCode() { return Objects.hash(op().id(), index()); }
-    }
-
-    Var[] freeVars() { return freeVars(null); }
+    Var[] freeVars() { return freeVars(topo()); }
 
-    Var[] freeVars(HashMap<Op, HashSet<Output>> outputs) {
-        var vars = new TreeSet<Var>((v, w) -> v.name().compareTo(w.name()));
-        freeVars(new HashSet<Op>(), vars, outputs);
+    /// The Var%s in @p order sorted by name.
+    static Var[] freeVars(Op[] order) {
+        var vars = new ArrayList<Var>();
+        for (var op : order)
+            if (op instanceof Var var) vars.add(var);
+        vars.sort((v, w) -> v.name().compareTo(w.name()));
         return vars.toArray(new Var[vars.size()]);
     }
 
-    void freeVars(HashSet<Op> done, TreeSet<Var> vars, HashMap<Op, HashSet<Output>> outputs) {
-        if (done.add(this)) {
-            if (this instanceof Var var) {
-                vars.add(var);
-            } else {
-                for (int i = 0, e = numInputs(); i != e; ++i) {
-                    var input = input(i);
-                    if (outputs != null) {
-                        if (!outputs.containsKey(input)) outputs.put(input, new HashSet<Output>());
-                        outputs.get(input).add(new Output(this, i));
+    /// All Ops reachable from `this` in topological order, i.e. each Op comes after its inputs.
+    /// Works with an explicit stack so deep chains don't overflow the Java stack.
+    public Op[] topo() { return topo(this); }
+
+    /// All Ops reachable from any of @p roots in topological order; shared Ops only show up once.
+    static Op[] topo(Op... roots) {
+        var res   = new Op[16];
+        var stack = new Op[16];
+        var next  = new int[16]; // index of the next input to visit per stack entry
+        var seen  = new BitSet();
+        int size  = 0;
+        int sp    = 0;
+        for (var root : roots) {
+            if (seen.get(root.id())) continue;
+            stack[sp]  = root;
+            next[sp++] = 0;
+            seen.set(root.id());
+            while (sp != 0) {
+                var op = stack[sp - 1];
+                int i  = next[sp - 1];
+                if (i != op.numInputs()) {
+                    next[sp - 1] = i + 1;
+                    var input = op.input(i);
+                    if (!seen.get(input.id())) {
+                        seen.set(input.id());
+                        if (sp == stack.length) {
+                            stack = Arrays.copyOf(stack, sp * 2);
+                            next  = Arrays.copyOf(next, sp * 2);
+                        }
+                        stack[sp]  = input;
+                        next[sp++] = 0;
                     }
-                    input.freeVars(done, vars, outputs);
+                } else {
+                    --sp;
+                    if (size == res.length) res = Arrays.copyOf(res, size * 2);
+                    res[size++] = op;
                 }
             }
         }
+        return Arrays.copyOf(res, size);
+    }
+
+    /// Canonical structural fingerprint of the DAG rooted at `this` as 32 hex digits.
+    /// It only depends on the structure - not on Op IDs - so the same expression built in a different order or in
+    /// another DAG yields the same fingerprint. Inputs of the commutative Add and Mul - and the multiplicands of an
+    /// Fma - are hashed order-independently. Those of a Sum or Product are hashed in their stored order, which is the
+    /// order they are reduced in: A different order may round differently, so it must not share cached artifacts.
+    public String fingerprint() {
+        var order = topo();
+        int maxID = 0;
+        for (var op : order) maxID = Math.max(maxID, op.id());
+        var idx = new int[maxID + 1];
+        var lo  = new long[order.length];
+        var hi  = new long[order.length];
+
+        for (int i = 0, n = order.length; i != n; ++i) {
+            var  op = order[i];
+            long a  = FINGERPRINT_VERSION + op.kind().ordinal();
+            long b  = ~a;
+            if (op instanceof Lit lit) {
+                a = mix(a, Double.doubleToLongBits(lit.get()));
+                b = mix(b, Double.doubleToLongBits(lit.get()) * 0x9e3779b97f4a7c15L);
+            } else if (op instanceof Var var) {
+                for (int c = 0, e = var.name().length(); c != e; ++c) {
+                    a = mix(a, var.name().charAt(c));
+                    b = mix(b, var.name().charAt(c) * 0x9e3779b97f4a7c15L);
+                }
+            }
+
+            var ins = new int[op.numInputs()];
+            for (int j = 0, e = ins.length; j != e; ++j) ins[j] = idx[op.input(j).id()];
+            boolean commutes = op.kind() == Kind.Add || op.kind() == Kind.Mul || op.kind() == Kind.Fma;
+            if (commutes && Long.compareUnsigned(lo[ins[0]], lo[ins[1]]) > 0) { // smaller one first
+                int t = ins[0];
+                ins[0] = ins[1];
+                ins[1] = t;
+            }
+            for (int in : ins) {
+                a = mix(a, lo[in]);
+                b = mix(b, hi[in]);
+            }
+
+            idx[op.id()] = i;
+            lo[i]        = a;
+            hi[i]        = b;
+        }
+        int root = order.length - 1;
+        return String.format("%016x%016x", hi[root], lo[root]);
+    }
+
+    /// Bump to invalidate all cached artifacts keyed by fingerprint(), e.g. when the LLVM emitter changes.
+    private static final long FINGERPRINT_VERSION = 3;
+
+    private static long mix(long h, long x) {
+        h ^= x;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
     }
 
     void emit(String file) throws IOException {
@@ -193,6 +298,36 @@ public abstract class Op {
 
     abstract double eval_(double[] inVals);
 
+    /// Compiles `this` into a Tape that evaluates without recursion, boxing, or allocation.
+    /// Compile once and reuse the Tape for many evaluations.
+    public Tape compile() { return new Tape(this); }
+
+    /// Evaluates `this` at @p at - ordered like freeVars() - and keeps all values, so that after changing a few Vars
+    /// only what depends on them is recomputed. Works for a Grad root, too.
+    public Incremental incremental(double... at) { return new Incremental(compile(), at); }
+
+    /// Value of `this` at @p at and all partials - ordered like freeVars() - in @p outGrad via numeric reverse mode.
+    /// Costs a small multiple of one evaluation and doesn't grow the DAG, as opposed to backwards().
+    /// Compile once and use Tape.gradient when doing this at many points.
+    public double gradient(double[] at, double[] outGrad) { return compile().gradient(at, outGrad); }
+
+    /// Value of `this` at @p at and its derivative along each of @p dirs - given like freeVars() - in
+    /// `outTangents[j][0]` via forward mode. A Grad root yields all its outputs per direction, see Tape.jvp.
+    public double jvp(double[] at, double[][] dirs, double[][] outTangents) {
+        return compile().jvp(at, dirs, null, outTangents);
+    }
+
+    /// Runs PassManager.standard() over `this`; evaluate, compile, or emit the result instead of `this`.
+    public Op optimize() { return PassManager.standard().run(this); }
+
+    /// Finds the cheapest equivalent of `this` via equality saturation, see EGraph.
+    /// The result has no Fmas; optimize() it to contract Muls and Adds again.
+    public Op saturate() { return EGraph.optimize(this); }
+
+    /// Translates `this` into JVM bytecode, so C2 can optimize the whole expression as straight-line code.
+    /// For a Grad root, Kernel.apply(double[], double[]) yields the value and all partials.
+    public Kernel jit() { return Jit.compile(this); }
+
     /*
      * DOT output
      */
@@ -247,85 +382,160 @@ public abstract class Op {
      * LLVM output
      */
 
-    public final void llvm(String file) throws IOException {
-        try (var writer = new BufferedWriter(new FileWriter(file))) {
-            // declare LLVM intrinsics we might use
-            writer.append("declare double @llvm.pow.f64(double %Val, double %Power)\n");
-            writer.append("declare double @llvm.log.f64(double %Val)\n");
-            writer.append("declare double @llvm.exp.f64(double %Val)\n");
-            writer.append("declare double @llvm.sin.f64(double %Val)\n");
-            writer.append("declare double @llvm.cos.f64(double %Val)\n");
-            writer.newLine();
-
-            // mll signature
-            writer.append("define void @mll(ptr noundef noalias %_input, ptr noundef noalias %_output) {\n");
-
-            // load vars
-            var map = new HashMap<Op, String>();
-            int i   = 0;
-            for (var var : freeVars()) {
-                var name = String.format("%%%s", var);
-                writer.append(String.format("\t%%_in%d = getelementptr inbounds double, ptr %%_input, i64 %d\n", i, i));
-                writer.append(String.format("\t%s = load double, ptr %%_in%d\n", name, i));
-                map.put(var, name);
-                ++i;
-            }
-
-            // emit final store and recursively the body to compute it
-            llvm_store(map, writer);
-
-            // ret void
-            writer.append("\tret void\n");
-            writer.append("}\n");
-        }
+    /// Emits `void @mll(ptr %_input, ptr %_output)` which loads the Var%s ordered as in freeVars() from `%_input`
+    /// and stores the result (value plus partials for a Grad) to `%_output`.
+    public final void llvm(String file) throws IOException { LLVMWriter.emit(this, Paths.get(file)); }
+
+    /// Emits a counted loop over struct-of-arrays columns:
+    /// Input `v` of point `i` is read from `in_soa[v * n + i]` (Vars ordered as in freeVars())
+    /// and output `o` (one for an ordinary root, value plus partials for a Grad) is written to `out_soa[o * n + i]`.
+    /// Both buffers must be 32-byte aligned and must not overlap - this is what allows `opt` to vectorize the body.
+    public final void llvmBatch(String file) throws IOException { LLVMWriter.emitBatch(this, Paths.get(file)); }
+
+    /// Emits `this` as out/llvm/@p filename.ll, builds it into a shared library with clang and loads it in-process.
+    public final NativeKernel llvmNative(String filename, int optLevel) throws IOException {
+        Files.createDirectories(Paths.get("out/llvm"));
+        llvm(Paths.get("out/llvm", filename + ".ll").toString());
+        return loadNative(filename, optLevel);
     }
 
-    protected final String llvm(HashMap<Op, String> map, Writer writer) throws IOException {
-        var res = map.get(this);
-        if (res != null) return res;
-        res = llvm_(map, writer);
-        map.put(this, res);
-        return res;
-    }
+    /// Same as llvmNative(String, int) but goes through the content-addressed cache, see llvmCached().
+    public final NativeKernel llvmNative(int optLevel) throws IOException { return loadNative(llvmCached(), optLevel); }
 
-    protected void llvm_store(HashMap<Op, String> map, Writer writer) throws IOException {
-        var res = llvm(map, writer);
-        writer.append(String.format("\tstore double %s, ptr %%_output\n", res));
+    private NativeKernel loadNative(String filename, int optLevel) throws IOException {
+        var lib = Util.saveLLVMShared(filename, optLevel);
+        return NativeKernel.load(lib, freeVars().length, this instanceof Grad ? numInputs() : 1);
     }
 
-    protected abstract String llvm_(HashMap<Op, String> map, Writer writer) throws IOException;
+    /// Emits `this` into out/llvm/cache/<fingerprint()>.ll unless it is already there.
+    /// Returns the name to pass on to Util, e.g. `Util.saveLLVMOpt(op.llvmCached(), 3)`, which then also reuses
+    /// optimized programs and shared libraries from the cache instead of launching the toolchain again.
+    public final String llvmCached() throws IOException {
+        var name = Util.LLVM_CACHE + "/" + fingerprint();
+        var file = Paths.get("out/llvm", name + ".ll");
+        if (!Files.exists(file)) {
+            Files.createDirectories(file.getParent());
+            var tmp = Files.createTempFile(file.getParent(), "emit", ".tmp"); // never expose a half-written file
+            llvm(tmp.toString());
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return name;
+    }
 
     /*
      * Backpropagation
      */
 
-    public Grad backwards() {
-        var outputs    = new HashMap<Op, HashSet<Output>>();
-        var vars       = freeVars(outputs);
-        var map        = new HashMap<Op, Op>();
-        var gradInputs = new Op[vars.length + 1];
+    public Grad backwards() { return backwards(freeVars()); }
+
+    /// Symbolic gradient of `this` w.r.t. @p wrt only: The Grad holds `this` followed by one partial per Var of @p wrt
+    /// in the given order. One reverse sweep over topo() - no recursion, so deep chains are fine.
+    /// Only Ops that depend on some Var of @p wrt are active and get an adjoint; everything else is never visited.
+    public Grad backwards(Var... wrt) {
+        var partials   = adjoints(new Op[] { this }, wrt);
+        var gradInputs = new Op[wrt.length + 1];
         gradInputs[0] = this;
-        for (int i = 0, e = vars.length; i != e; ++i) gradInputs[i + 1] = vars[i].backwards(map, outputs, this);
-        return Grad.c(gradInputs, vars);
+        System.arraycopy(partials, 0, gradInputs, 1, wrt.length);
+        return Grad.c(gradInputs, wrt.clone());
     }
 
-    protected Op backwards(HashMap<Op, Op> map, HashMap<Op, HashSet<Output>> outputs, Op res) {
-        if (this == res) return lit1();
+    /// The partials of the sum of all @p roots w.r.t. each of @p wrt via one reverse sweep, see backwards(Var...).
+    /// The roots are seeded individually, so unlike building their Sum first nothing cancels out.
+    static Op[] adjoints(Op[] roots, Var[] wrt) {
+        var order = topo(roots);
+
+        // activity analysis: an Op is active iff it depends on one of wrt
+        var active = new BitSet();
+        for (var var : wrt) active.set(var.id());
+        for (var op : order) {
+            for (int i = 0, e = op.numInputs(); i != e && !active.get(op.id()); ++i)
+                if (active.get(op.input(i).id())) active.set(op.id());
+        }
 
-        var adjoint = map.get(this);
-        if (adjoint != null) return adjoint;
+        // reverse sweep: push the adjoint of each Op to its active inputs
+        // All users of an Op come before it, so its terms are complete once it is reached and go into a single Sum.
+        var terms = new HashMap<Op, ArrayList<Op>>();
+        for (var root : roots) terms.computeIfAbsent(root, k -> new ArrayList<>()).add(root.lit1());
+        for (int k = order.length; k-- != 0;) {
+            var op = order[k];
+            if (op instanceof Var) continue;
+            var adjoint = sum(terms.remove(op));
+            if (adjoint == null) continue;
+
+            for (int i = 0, e = op.numInputs(); i != e; ++i) {
+                var input = op.input(i);
+                if (!active.get(input.id())) continue;
+                terms.computeIfAbsent(input, key -> new ArrayList<>()).add(adjoint.mul(op.diff(i)));
+            }
+        }
 
-        adjoint = lit0();
-        for (var output : outputs.get(this)) {
-            var out        = output.op();
-            var out_i      = output.index();
-            var out_a      = out.backwards(map, outputs, res);
-            var dout_dthis = out.diff(out_i);
-            adjoint = adjoint.add(out_a.mul(dout_dthis));
+        var res = new Op[wrt.length];
+        for (int i = 0, e = wrt.length; i != e; ++i) {
+            var adjoint = sum(terms.get(wrt[i]));
+            res[i] = adjoint != null ? adjoint : wrt[i].lit0();
         }
+        return res;
+    }
 
-        map.put(this, adjoint);
-        return adjoint;
+    /// Hessian-vector product of `this` w.r.t. all its free Var%s along @p v, see hvp(Var[], Op[]).
+    public Grad hvp(Op... v) { return hvp(freeVars(), v); }
+
+    /// Hessian-vector product `H v` of `this` w.r.t. @p wrt via forward over reverse: The partials of
+    /// backwards(@p wrt) are differentiated once more along @p v - one Op per Var of @p wrt, e.g. Lit%s or further
+    /// Var%s to be bound at evaluation time - by tangents(). The Grad holds `this` followed by `(H v)_i` per Var of
+    /// @p wrt in the given order. Costs a small multiple of backwards(), whereas calling backwards() on each partial
+    /// builds a whole new gradient per Var.
+    public Grad hvp(Var[] wrt, Op[] v) {
+        if (v.length != wrt.length) throw new IllegalArgumentException("need one direction entry per Var");
+        var grad  = backwards(wrt);
+        var seeds = new HashMap<Op, Op>();
+        for (int i = 0, e = wrt.length; i != e; ++i)
+            if (!Lit.is(v[i], 0.0)) seeds.put(wrt[i], v[i]);
+
+        var hv     = tangents(Arrays.copyOfRange(grad.inputs(), 1, grad.numInputs()), seeds);
+        var inputs = new Op[wrt.length + 1];
+        inputs[0] = this;
+        System.arraycopy(hv, 0, inputs, 1, hv.length);
+        return Grad.c(inputs, wrt.clone());
+    }
+
+    /// Sparse Jacobian of all @p roots w.r.t. all their free Var%s, see Jacobian.
+    public static Jacobian jacobian(Op... roots) { return Jacobian.of(roots.clone(), freeVars(topo(roots))); }
+
+    /// Sparse Jacobian of all @p roots w.r.t. @p wrt, see Jacobian.
+    public static Jacobian jacobian(Op[] roots, Var[] wrt) { return Jacobian.of(roots.clone(), wrt.clone()); }
+
+    /// Sparse Hessian of `this` w.r.t. all its free Var%s, see Hessian.
+    public Hessian hessian() { return Hessian.of(this, freeVars()); }
+
+    /// Sparse Hessian of `this` w.r.t. @p wrt, see Hessian.
+    public Hessian hessian(Var... wrt) { return Hessian.of(this, wrt.clone()); }
+
+    /// Symbolic forward mode: The derivative of each of @p outs along the direction given by @p seeds - the tangent
+    /// per Var; absent ones are 0. Built from the same diff() rules as backwards() in one sweep over topo(@p outs), so
+    /// tangents of shared Ops are only built once. An Op's tangent is the Sum of `diff(i) * tangent(input i)`.
+    static Op[] tangents(Op[] outs, Map<Op, Op> seeds) {
+        var tan = new HashMap<Op, Op>(seeds);
+        for (var op : topo(outs)) {
+            if (op instanceof Lit || op instanceof Var || op instanceof Grad) continue;
+            var terms = new ArrayList<Op>();
+            for (int i = 0, e = op.numInputs(); i != e; ++i) {
+                var t = tan.get(op.input(i));
+                if (t != null) terms.add(op.diff(i).mul(t));
+            }
+            var t = sum(terms);
+            if (t != null && !Lit.is(t, 0.0)) tan.put(op, t);
+        }
+
+        var res = new Op[outs.length];
+        for (int i = 0, e = outs.length; i != e; ++i) res[i] = tan.getOrDefault(outs[i], outs[i].lit0());
+        return res;
+    }
+
+    /// The Sum of @p terms or `null` if there are none.
+    private static Op sum(ArrayList<Op> terms) {
+        if (terms == null || terms.isEmpty()) return null;
+        return terms.size() == 1 ? terms.get(0) : Sum.c(terms.toArray(new Op[terms.size()]));
     }
 
     abstract protected Op diff(int inputIdx);
@@ -334,6 +544,8 @@ public abstract class Op {
 abstract class UnOp extends Op {
     UnOp(Op arg) { super(arg.dag(), arg); }
 
+    @Override public int numInputs() { return 1; }
+
     public Op arg() { return input(0); }
     @Override public String toString() { return String.format("(%s(%s))", opString(), arg()); }
 }
@@ -341,6 +553,8 @@ abstract class UnOp extends Op {
 abstract class BinOp extends Op {
     BinOp(Op lhs, Op rhs) { super(lhs.dag(), lhs, rhs); }
 
+    @Override public int numInputs() { return 2; }
+
     public Op lhs() { return input(0); }
     public Op rhs() { return input(1); }
     @Override public String toString() { return String.format("(%s %s %s)", lhs(), opString(), rhs()); }
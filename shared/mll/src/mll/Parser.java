@@ -0,0 +1,156 @@
+package mll;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+import mll.Tok.Prec;
+import mll.Tok.Tag;
+
+/// Parses mll source into Op%s of a DAG.
+///
+/// ```
+/// prog = { "let" id "=" expr ";" } expr [";"]
+/// expr = expr ("+" | "-" | "*" | "/" | "^") expr | "-" expr | ("exp" | "log" | "sin" | "cos") expr
+///      | "(" expr ")" | lit | id
+/// ```
+/// Binary operators bind as given by Tag.binPrec(); all are left-associative except `^`. Unary `-` binds weaker than
+/// `^` - `-x^2` is `-(x^2)` - while the functions bind tightest: `sin x^2` is `(sin x)^2`.
+/// A `let` binds a name to an Op for the rest of the program and may shadow an earlier one; any other name is a Var.
+/// There is no AST: Each Op is built via its factory - and so hash-consed and simplified - as soon as it is parsed.
+/// Errors are IllegalArgumentException%s whose message starts with the Loc of the offending Tok.
+public final class Parser {
+    private final DAG                 dag_;
+    private final Lexer               lexer_;
+    private final HashMap<String, Op> lets_ = new HashMap<>();
+    private Tok                       ahead_;
+
+    private Parser(DAG dag, Lexer lexer) {
+        dag_   = dag;
+        lexer_ = lexer;
+        ahead_ = lexer.lex();
+    }
+
+    /// Parses @p file, which is memory-mapped rather than read.
+    public static Op parse(DAG dag, Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException(file + ": too large");
+            var buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return parse(dag, file.toString(), buf);
+        }
+    }
+
+    /// Parses @p src; @p file only names it in error messages.
+    public static Op parse(DAG dag, String file, String src) {
+        return parse(dag, file, ByteBuffer.wrap(src.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public static Op parse(DAG dag, String file, ByteBuffer buf) { return new Parser(dag, new Lexer(file, buf)).prog(); }
+
+    /*
+     * helpers
+     */
+
+    private Tok lex() {
+        var res = ahead_;
+        ahead_ = lexer_.lex();
+        return res;
+    }
+
+    private boolean accept(Tag tag) {
+        if (ahead_.tag() != tag) return false;
+        lex();
+        return true;
+    }
+
+    private Tok expect(Tag tag, String ctxt) {
+        if (ahead_.tag() != tag) throw error(String.format("expected '%s' %s but got '%s'", tag, ctxt, ahead_));
+        return lex();
+    }
+
+    private IllegalArgumentException error(String msg) { return Lexer.error(ahead_.loc(), msg); }
+
+    /*
+     * grammar
+     */
+
+    private Op prog() {
+        while (accept(Tag.K_let)) {
+            var id = expect(Tag.M_id, "after 'let'");
+            expect(Tag.T_eq, "after let-bound name");
+            var op = expr(Prec.Bot);
+            expect(Tag.T_semicolon, "after let-binding");
+            lets_.put(id.id(), op);
+        }
+        var res = expr(Prec.Bot);
+        accept(Tag.T_semicolon);
+        expect(Tag.M_eof, "after program");
+        return res;
+    }
+
+    /// Parses operators as long as they bind tighter than @p prec.
+    private Op expr(Prec prec) {
+        var lhs = primary();
+        for (;;) {
+            var tag = ahead_.tag();
+            var bin = tag.binPrec();
+            if (bin.ordinal() <= prec.ordinal()) return lhs; // Err for anything that isn't a binary operator
+            lex();
+            var rhs = expr(tag == Tag.O_pow ? Prec.Mul : bin); // right-associative: accept another ^ on the right
+            lhs = switch (tag) {
+                case O_add -> lhs.add(rhs);
+                case O_sub -> lhs.sub(rhs);
+                case O_mul -> lhs.mul(rhs);
+                case O_div -> lhs.div(rhs);
+                case O_pow -> lhs.pow(rhs);
+                default -> throw new AssertionError(tag);
+            };
+        }
+    }
+
+    private Op primary() {
+        var tok = ahead_;
+        return switch (tok.tag()) {
+            case M_lit -> {
+                lex();
+                yield dag_.lit(tok.lit());
+            }
+            case M_id -> {
+                lex();
+                var op = lets_.get(tok.id());
+                yield op != null ? op : dag_.var(tok.id());
+            }
+            case O_sub -> {
+                lex();
+                yield expr(Prec.Mul).neg();
+            }
+            case K_exp -> {
+                lex();
+                yield expr(Prec.Pre).exp();
+            }
+            case K_log -> {
+                lex();
+                yield expr(Prec.Pre).log();
+            }
+            case K_sin -> {
+                lex();
+                yield expr(Prec.Pre).sin();
+            }
+            case K_cos -> {
+                lex();
+                yield expr(Prec.Pre).cos();
+            }
+            case D_paren_l -> {
+                lex();
+                var op = expr(Prec.Bot);
+                expect(Tag.D_paren_r, "to close parenthesized expression");
+                yield op;
+            }
+            default -> throw error(String.format("expected expression but got '%s'", tok));
+        };
+    }
+}
@@ -0,0 +1,217 @@
+package mll;
+
+import java.util.ArrayList;
+
+/// Optimizes finished DAGs with a pipeline of Pass%es guided by a simple cost model.
+///
+/// The c() factories only see one Op at a time while it is being built. A PassManager instead sweeps over the whole
+/// DAG bottom-up: Each Op is first rebuilt from its rewritten inputs via the factories - which re-applies their
+/// simplifications - and then handed to each Pass in turn. Sweeps repeat until nothing changes anymore.
+/// The result is an ordinary Op, so it feeds eval, compile(), jit(), and llvm alike; the input DAG stays untouched.
+public final class PassManager {
+    /// Rewrites @p op whose inputs have already been rewritten.
+    /// Returns the replacement or @p op itself to keep it.
+    @FunctionalInterface
+    public interface Pass {
+        Op rewrite(Op op);
+    }
+
+    private static final int MAX_SWEEPS = 8;
+
+    private final ArrayList<Pass> passes_ = new ArrayList<>();
+
+    public PassManager add(Pass pass) {
+        passes_.add(pass);
+        return this;
+    }
+
+    /// All of the rewrites below.
+    public static PassManager standard() {
+        return new PassManager()
+                .add(PassManager::expLog)
+                .add(PassManager::reciprocal)
+                .add(PassManager::identities)
+                .add(PassManager::powi)
+                .add(PassManager::contract);
+    }
+
+    public Op run(Op root) {
+        for (int i = 0; i != MAX_SWEEPS; ++i) {
+            var res = sweep(root);
+            if (res == root) break;
+            root = res;
+        }
+        return root;
+    }
+
+    private Op sweep(Op root) {
+        var order = root.topo();
+        int maxID = 0;
+        for (var op : order) maxID = Math.max(maxID, op.id());
+
+        var map = new Op[maxID + 1];
+        for (var op : order) {
+            var res = rebuild(op, map);
+            for (var pass : passes_) res = pass.rewrite(res);
+            map[op.id()] = res;
+        }
+        return map[root.id()];
+    }
+
+    /// @p op itself if none of its inputs changed; otherwise a new Op of the same Kind via its factory.
+    private static Op rebuild(Op op, Op[] map) {
+        int     n      = op.numInputs();
+        var     inputs = new Op[n];
+        boolean same   = true;
+        for (int i = 0; i != n; ++i) {
+            inputs[i] = map[op.input(i).id()];
+            same &= inputs[i] == op.input(i);
+        }
+        if (same) return op;
+
+        return switch (op.kind()) {
+            case Add -> Add.c(inputs[0], inputs[1]);
+            case Sub -> Sub.c(inputs[0], inputs[1]);
+            case Mul -> Mul.c(inputs[0], inputs[1]);
+            case Div -> Div.c(inputs[0], inputs[1]);
+            case Pow -> Pow.c(inputs[0], inputs[1]);
+            case Neg -> Neg.c(inputs[0]);
+            case Exp -> Exp.c(inputs[0]);
+            case Log -> Log.c(inputs[0]);
+            case Sin -> Sin.c(inputs[0]);
+            case Cos -> Cos.c(inputs[0]);
+            case Fma -> Fma.c(inputs[0], inputs[1], inputs[2]);
+            case Sum -> Sum.c(inputs);
+            case Product -> Product.c(inputs);
+            case Grad -> Grad.c(inputs, ((Grad) op).vars());
+            case Lit, Var -> op;
+        };
+    }
+
+    /*
+     * cost model
+     */
+
+    /// Rough cost of one @p kind in units of one `fmul`; an n-ary Op costs this once per binary step.
+    static int cost(Kind kind) {
+        return switch (kind) {
+            case Lit, Var, Grad -> 0;
+            case Add, Sub, Mul, Neg, Fma, Sum, Product -> 1;
+            case Div -> 4;
+            case Exp, Log, Sin, Cos -> 16;
+            case Pow -> 24;
+        };
+    }
+
+    /// Cost of evaluating all of @p root once.
+    public static long cost(Op root) {
+        long res = 0;
+        for (var op : root.topo()) res += (long) cost(op.kind()) * (op instanceof NaryOp ? op.numInputs() - 1 : 1);
+        return res;
+    }
+
+    /*
+     * passes
+     */
+
+    /// `exp(log x) = x` and `log(exp x) = x`.
+    /// Note that the former assumes `x > 0` - otherwise `exp(log x)` would be NaN.
+    public static Op expLog(Op op) {
+        if (op instanceof Exp exp && exp.arg() instanceof Log log) return log.arg();
+        if (op instanceof Log log && log.arg() instanceof Exp exp) return exp.arg();
+        return op;
+    }
+
+    /// `x / c = (1 / c) * x` for a Lit `c`: one fmul instead of one fdiv.
+    /// Exact if `c` is a power of two; otherwise the result may differ in the last bit.
+    public static Op reciprocal(Op op) {
+        if (op instanceof Div div && div.rhs() instanceof Lit c && c.get() != 0.0 && Double.isFinite(c.get()))
+            return Mul.c(op.lit(1.0 / c.get()), div.lhs());
+        return op;
+    }
+
+    /// Removes the `+ 0`, `- 0`, `* 1`, `/ 1`, and `^ 1` that are left over, e.g. by backwards(), and turns `* -1`
+    /// into a Neg.
+    public static Op identities(Op op) {
+        var kind = op.kind();
+        if (kind != Kind.Add && kind != Kind.Sub && kind != Kind.Mul && kind != Kind.Div && kind != Kind.Pow) return op;
+        var x = op.input(0);
+        var y = op.input(1);
+        return switch (kind) {
+            case Add -> Lit.is(x, 0.0) ? y : Lit.is(y, 0.0) ? x : op;
+            case Sub -> Lit.is(y, 0.0) ? x : op;
+            case Mul -> {
+                if (Lit.is(x, 1.0)) yield y;
+                if (Lit.is(y, 1.0)) yield x;
+                if (Lit.is(x, -1.0)) yield y.neg();
+                if (Lit.is(y, -1.0)) yield x.neg();
+                yield op;
+            }
+            case Div, Pow -> Lit.is(y, 1.0) ? x : op;
+            default -> op;
+        };
+    }
+
+    /// `x^n` for an integer Lit `n` as a chain of fmuls via binary exponentiation - and a reciprocal for `n < 0` -
+    /// if that is cheaper than a Pow according to cost(Kind).
+    /// The chain is built without the Mul factory, which would fold `x * x` right back into `x^2`.
+    public static Op powi(Op op) {
+        if (!(op instanceof Pow pow) || !(pow.exponent() instanceof Lit lit)) return op;
+        double e = lit.get();
+        if (e != Math.rint(e) || Math.abs(e) < 2.0 || Math.abs(e) > Integer.MAX_VALUE) return op;
+
+        int  n     = (int) Math.abs(e);
+        int  muls  = 31 - Integer.numberOfLeadingZeros(n) + Integer.bitCount(n) - 1;
+        long chain = (long) muls * cost(Kind.Mul) + (e < 0.0 ? cost(Kind.Div) : 0);
+        if (chain >= cost(Kind.Pow)) return op;
+
+        var dag = op.dag();
+        Op  res = null;
+        Op  sq  = pow.base();
+        for (int m = n;;) {
+            if ((m & 1) != 0) res = res == null ? sq : mul(dag, res, sq);
+            if ((m >>>= 1) == 0) break;
+            sq = mul(dag, sq, sq);
+        }
+        return e < 0.0 ? Div.c(dag.lit1(), res) : res;
+    }
+
+    /// Contracts `a * b + c` - and `c - l * b` for a Lit `l` - into an Fma: one instruction and one rounding instead
+    /// of two. Backwards() accumulates adjoints exactly like this. The result is at least as accurate, but may differ
+    /// from the unfused one in the last bit.
+    public static Op contract(Op op) {
+        if (op instanceof Add add) {
+            if (add.lhs() instanceof Mul m) return Fma.c(m.lhs(), m.rhs(), add.rhs());
+            if (add.rhs() instanceof Mul m) return Fma.c(m.lhs(), m.rhs(), add.lhs());
+        }
+        if (op instanceof Sub sub && sub.rhs() instanceof Mul m && m.lhs() instanceof Lit l)
+            return Fma.c(op.lit(-l.get()), m.rhs(), sub.lhs());
+        if (op instanceof Sum sum) return contract(sum);
+        return op;
+    }
+
+    /// Pairs each Mul term of @p sum with another term into an Fma, which then takes the place of both.
+    private static Op contract(Sum sum) {
+        var muls   = new ArrayList<Mul>();
+        var others = new ArrayList<Op>();
+        for (var input : sum.inputs()) {
+            if (input instanceof Mul m) muls.add(m);
+            else others.add(input);
+        }
+        if (muls.isEmpty()) return sum;
+
+        var terms = new ArrayList<Op>();
+        int m     = 0;
+        for (int o = 0, e = others.size(); o != e; ++o) {
+            var other = others.get(o);
+            terms.add(m != muls.size() ? Fma.c(muls.get(m).lhs(), muls.get(m++).rhs(), other) : other);
+        }
+        for (; m + 1 < muls.size(); m += 2) terms.add(Fma.c(muls.get(m).lhs(), muls.get(m).rhs(), muls.get(m + 1)));
+        if (m != muls.size()) terms.add(muls.get(m));
+        return Sum.c(terms.toArray(new Op[terms.size()]));
+    }
+
+    private static Op mul(DAG dag, Op x, Op y) {
+        return x.id() <= y.id() ? dag.unify(Kind.Mul, x, y) : dag.unify(Kind.Mul, y, x);
+    }
+}
@@ -0,0 +1,18 @@
+package mll;
+
+class Pos {
+    Pos(int row, int col) {
+        this.row = row;
+        this.col = col;
+    }
+
+    @Override public Pos clone() { return new Pos(row, col); }
+
+    @Override public String toString() { return String.format("%d:%d", row, col); }
+
+    @Override public boolean equals(Object obj) { return (obj instanceof Pos pos) && row == pos.row && col == pos.col; }
+    @Override public int hashCode() { return 31 * row + col; }
+
+    public int row;
+    public int col;
+}
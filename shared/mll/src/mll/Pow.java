@@ -1,9 +1,5 @@
 package mll;
 
-import java.io.IOException;
-import java.io.Writer;
-import java.util.HashMap;
-
 public class Pow extends BinOp {
     Pow(Op base, Op exponent) { super(base, exponent); }
 
@@ -15,28 +11,23 @@ public class Pow extends BinOp {
         if (Lit.is(y, 0.f)) return dag.lit1(); // x^0 = 1
         if (Lit.is(y, 1.f)) return x; // x^1 = x
 
-        return dag.unify(new Pow(x, y));
+        return dag.unify(Kind.Pow, x, y);
     }
 
     public Op base() { return lhs(); }
     public Op exponent() { return rhs(); }
+    @Override Kind kind() { return Kind.Pow; }
     @Override public String opString() { return "^"; }
 
     @Override protected double eval_(double[] inVals) { return (double) Math.pow(inVals[0], inVals[1]); }
 
-    @Override protected String llvm_(HashMap<Op, String> map, Writer writer) throws IOException {
-        var l = lhs().llvm(map, writer);
-        var r = rhs().llvm(map, writer);
-        var x = String.format("%%_%d", id());
-        writer.append(String.format("\t%s = call double @llvm.pow.f64(double %s, double %s)\n", x, l, r));
-        return x;
-    }
-
     @Override protected Op diff(int inputIdx) {
         if (rhs() instanceof Lit l) {
             if (inputIdx == 1) return lit0();
             return l.mul(lhs().pow(lit(l.get() - 1.f)));
         }
-        return null; // TODO
+        // (x^y)' = y * x^(y - 1) * x' + x^y * log(x) * y'
+        if (inputIdx == 0) return rhs().mul(lhs().pow(rhs().sub(lit1())));
+        return mul(lhs().log());
     }
 }
@@ -0,0 +1,64 @@
+package mll;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/// `x1 * x2 * ... * xn` for three or more factors.
+/// Canonical: Nested Products and Muls are flattened, Lit%s folded into one coefficient, and repeated factors merged
+/// via their exponents - `x * y * x^2` is `x^3 * y` -, so equal Products are hash-consed regardless of how they were
+/// built.
+public class Product extends NaryOp {
+    Product(Op[] inputs) { super(inputs); }
+
+    public static Op c(Op... xs) {
+        var    dag   = xs[0].dag();
+        var    terms = new Terms();
+        double lit   = 1.0;
+        var    stack = new ArrayDeque<Op>();
+        for (var x : xs) stack.push(x);
+        while (!stack.isEmpty()) {
+            var x = stack.pop();
+            if (x instanceof Product || x instanceof Mul) {
+                for (int i = 0, e = x.numInputs(); i != e; ++i) stack.push(x.input(i));
+            } else if (x instanceof Lit l) {
+                lit *= l.get();
+            } else if (x instanceof Neg neg) {
+                lit = -lit;
+                stack.push(neg.arg());
+            } else if (x instanceof Pow pow && pow.exponent() instanceof Lit l) {
+                terms.add(pow.base(), l.get());
+            } else {
+                terms.add(x, 1.0);
+            }
+        }
+        if (lit == 0.0) return dag.lit0(); // 0 * x = 0
+        terms.normalize();
+
+        var ops = new Op[terms.size() + 1];
+        int n   = 0;
+        if (lit != 1.0) ops[n++] = dag.lit(lit);
+        for (int i = 0, e = terms.size(); i != e; ++i) {
+            double w = terms.weight(i);
+            if (w != 0.0) ops[n++] = w == 1.0 ? terms.base(i) : Pow.c(terms.base(i), dag.lit(w));
+        }
+
+        return switch (n) {
+            case 0 -> dag.lit(lit);
+            case 1 -> ops[0];
+            case 2 -> Mul.c(ops[0], ops[1]);
+            default -> dag.unify(Kind.Product, Arrays.copyOf(ops, n));
+        };
+    }
+
+    @Override Kind kind() { return Kind.Product; }
+    @Override public String opString() { return "*"; }
+    @Override protected double eval_(double[] inVals) { return reduce(inVals, 0, inVals.length, (a, b) -> a * b); }
+
+    @Override protected Op diff(int inputIdx) {
+        // (x1 * ... * xn)' w.r.t. xi is the product of all others
+        var others = new Op[numInputs() - 1];
+        for (int i = 0, j = 0, e = numInputs(); i != e; ++i)
+            if (i != inputIdx) others[j++] = input(i);
+        return c(others);
+    }
+}
@@ -0,0 +1,40 @@
+package mll;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/// Vector API kernels for Tape's batch mode.
+/// Only touched if `jdk.incubator.vector` is present (see Tape.SIMD); otherwise this class is never loaded.
+final class Simd {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private Simd() {}
+
+    static boolean supports(Kind kind) {
+        return switch (kind) {
+            case Add, Sub, Mul, Div, Neg, Fma -> true;
+            default -> false; // Pow, Exp, Log, Sin, Cos: scalar fallback in Tape
+        };
+    }
+
+    /// `r[d + i] = r[a + i] op r[b + i]` for `i` in `[0, n)` where `op` is the BinOp or Neg denoted by @p kind;
+    /// an Fma computes `r[a + i] * r[b + i] + r[c + i]`.
+    /// Each operator gets its own loop: `lanewise` is only intrinsified for a constant operator.
+    static void lanewise(Kind kind, double[] r, int d, int a, int b, int c, int n) {
+        int i = 0, e = SPECIES.loopBound(n), step = SPECIES.length();
+        // @formatter:off
+        switch (kind) {
+            case Add -> { for (; i != e; i += step) load(r, a + i).add(load(r, b + i)).intoArray(r, d + i); }
+            case Sub -> { for (; i != e; i += step) load(r, a + i).sub(load(r, b + i)).intoArray(r, d + i); }
+            case Mul -> { for (; i != e; i += step) load(r, a + i).mul(load(r, b + i)).intoArray(r, d + i); }
+            case Div -> { for (; i != e; i += step) load(r, a + i).div(load(r, b + i)).intoArray(r, d + i); }
+            case Neg -> { for (; i != e; i += step) load(r, a + i).neg().intoArray(r, d + i); }
+            case Fma -> { for (; i != e; i += step) load(r, a + i).fma(load(r, b + i), load(r, c + i)).intoArray(r, d + i); }
+            default  -> throw new IllegalArgumentException("no vector kernel for " + kind);
+        }
+        // @formatter:on
+        for (; i != n; ++i) r[d + i] = Tape.scalar(kind, r[a + i], r[b + i], r[c + i]); // tail
+    }
+
+    private static DoubleVector load(double[] r, int i) { return DoubleVector.fromArray(SPECIES, r, i); }
+}
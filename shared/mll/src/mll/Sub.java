@@ -1,9 +1,5 @@
 package mll;
 
-import java.io.IOException;
-import java.io.Writer;
-import java.util.HashMap;
-
 public class Sub extends BinOp {
     Sub(Op lhs, Op rhs) { super(lhs, rhs); }
 
@@ -17,19 +13,12 @@ public class Sub extends BinOp {
         if (y instanceof Lit lit) return x.add(dag.lit(-lit.get())); // x - lit = x + -lit
         if (y instanceof Neg neg) return x.add(neg.arg()); // x - -y = x + y
 
-        return dag.unify(new Sub(x, y));
+        return dag.unify(Kind.Sub, x, y);
     }
 
+    @Override Kind kind() { return Kind.Sub; }
     @Override public String opString() { return "-"; }
     @Override protected double eval_(double[] inVals) { return inVals[0] - inVals[1]; }
 
-    @Override protected String llvm_(HashMap<Op, String> map, Writer writer) throws IOException {
-        var l = lhs().llvm(map, writer);
-        var r = rhs().llvm(map, writer);
-        var x = String.format("%%_%d", id());
-        writer.append(String.format("\t%s = fsub double %s, %s\n", x, l, r));
-        return x;
-    }
-
     @Override protected Op diff(int inputIdx) { return inputIdx == 0 ? lit1() : lit(-1.f); }
 }
@@ -0,0 +1,82 @@
+package mll;
+
+import java.util.Arrays;
+
+/// `x1 + x2 + ... + xn` for three or more terms.
+/// Canonical: Nested Sums, Adds, and Subs are flattened, Lit%s folded into one, and repeated terms merged via their
+/// coefficients - `x + 2*x - x` is `2*x` -, so equal Sums are hash-consed regardless of how they were built.
+/// Terms with a negative coefficient are summed up separately and subtracted once, which saves a Neg per term.
+public class Sum extends NaryOp {
+    Sum(Op[] inputs) { super(inputs); }
+
+    public static Op c(Op... xs) {
+        var    dag     = xs[0].dag();
+        var    terms   = new Terms();
+        double lit     = 0.0;
+        var    stack   = Arrays.copyOf(xs, Math.max(16, xs.length));
+        var    weights = new double[stack.length];
+        int    sp      = xs.length;
+        Arrays.fill(weights, 0, sp, 1.0);
+        while (sp != 0) {
+            var    x = stack[--sp];
+            double w = weights[sp];
+            for (;;) { // peel off the coefficient: -(2 * x) is x with weight -2
+                if (x instanceof Neg neg) {
+                    w = -w;
+                    x = neg.arg();
+                } else if (x instanceof Mul mul && mul.lhs() instanceof Lit l) {
+                    w *= l.get();
+                    x = mul.rhs();
+                } else {
+                    break;
+                }
+            }
+
+            if (x instanceof Lit l) {
+                lit += w * l.get();
+            } else if ((x instanceof Sum || x instanceof Add || x instanceof Sub) && Math.abs(w) == 1.0) {
+                int n = x.numInputs();
+                if (sp + n > stack.length) {
+                    stack   = Arrays.copyOf(stack, 2 * (sp + n));
+                    weights = Arrays.copyOf(weights, stack.length);
+                }
+                for (int i = 0; i != n; ++i) {
+                    stack[sp]     = x.input(i);
+                    weights[sp++] = x instanceof Sub && i == 1 ? -w : w;
+                }
+            } else {
+                terms.add(x, w); // don't distribute a coefficient over a Sum
+            }
+        }
+        terms.normalize();
+
+        var pos = new Op[terms.size() + 1];
+        var neg = new Op[terms.size()];
+        int np  = 0, nn = 0;
+        if (lit != 0.0) pos[np++] = dag.lit(lit);
+        for (int i = 0, e = terms.size(); i != e; ++i) {
+            double w = terms.weight(i);
+            if (w > 0.0) pos[np++] = term(terms.base(i), w);
+            if (w < 0.0) neg[nn++] = term(terms.base(i), -w);
+        }
+        if (nn == 0) return make(dag, pos, np);
+        return Sub.c(make(dag, pos, np), make(dag, neg, nn));
+    }
+
+    private static Op term(Op base, double w) { return w == 1.0 ? base : Mul.c(base.lit(w), base); }
+
+    private static Op make(DAG dag, Op[] ops, int n) {
+        return switch (n) {
+            case 0 -> dag.lit0();
+            case 1 -> ops[0];
+            case 2 -> Add.c(ops[0], ops[1]);
+            default -> dag.unify(Kind.Sum, Arrays.copyOf(ops, n));
+        };
+    }
+
+    @Override Kind kind() { return Kind.Sum; }
+    @Override public String opString() { return "+"; }
+    @Override protected double eval_(double[] inVals) { return reduce(inVals, 0, inVals.length, Double::sum); }
+
+    @Override protected Op diff(int inputIdx) { return lit1(); }
+}
@@ -0,0 +1,475 @@
+package mll;
+
+import java.io.Serial;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/// A compiled, register-based form of an Op DAG.
+/// @formatter:off
+/// ```
+/// registers: [ Lits ... | Vars ... | one per instruction ... ]
+/// ```
+/// @formatter:on
+/// Lits are written once when a register file is created, Vars are written on each evaluation and
+/// instruction `k` writes register `firstInstr + k` from registers `lhs[k]` and `rhs[k]`
+/// (`rhs[k] == lhs[k]` for UnOps) - and `acc[k]` for the addend of an Fma.
+/// A Sum or Product becomes a balanced tree of binary Add%s or Mul%s, see NaryOp.reduce.
+/// A Tape is immutable; evaluation only mutates the register file passed in, so one Tape may be shared by several
+/// threads as long as each uses its own registers().
+public final class Tape {
+    /// Use the Vector API kernels in Simd for batch evaluation?
+    /// Requires `jdk.incubator.vector` to be resolved, e.g. via `--add-modules jdk.incubator.vector` on the classpath.
+    static final boolean SIMD = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    /// Aim for all registers of one chunk to fit into a 256 KiB L2 cache.
+    private static final int CACHE_DOUBLES = 256 * 1024 / Double.BYTES;
+    private static final int MIN_CHUNK     = 16;
+    private static final int MAX_CHUNK     = 1024;
+
+    private final Var[]    vars_;
+    private final double[] lits_;
+    private final int      firstVar_;
+    private final int      firstInstr_;
+    private final int[]    code_;
+    private final int[]    lhs_;
+    private final int[]    rhs_;
+    private final int[]    acc_;     // addend of an Fma; same as rhs_ for all others
+    private final int[]    outputs_; // register of each output; more than one for a Grad root
+    private final double[] regs_;    // scratch for the convenience eval methods
+    private final double[] adj_;     // scratch for the convenience gradient method
+    private final int      chunk_;   // lanes per register in batch mode
+
+    Tape(Op root) {
+        var order = root.topo();
+        var grad  = root instanceof Grad ? (Grad) root : null;
+        int maxID = 0, numLits = 0, numVars = 0, numSteps = 0;
+        for (var op : order) {
+            maxID = Math.max(maxID, op.id());
+            if (op instanceof Lit) ++numLits;
+            if (op instanceof Var) ++numVars;
+            if (op instanceof NaryOp) numSteps += op.numInputs() - 2; // one instruction per binary step
+            if (op instanceof Grad && op != root)
+                throw new IllegalArgumentException("a Grad Op can only be compiled as root");
+        }
+
+        int numInstrs = order.length - numLits - numVars - (grad != null ? 1 : 0) + numSteps;
+        vars_       = new Var[numVars];
+        lits_       = new double[numLits];
+        firstVar_   = numLits;
+        firstInstr_ = numLits + numVars;
+        code_       = new int[numInstrs];
+        lhs_        = new int[numInstrs];
+        rhs_        = new int[numInstrs];
+        acc_        = new int[numInstrs];
+
+        // Vars in the same order as freeVars() so values line up with Op.eval(double...)
+        int v = 0;
+        for (var op : order)
+            if (op instanceof Var var) vars_[v++] = var;
+        Arrays.sort(vars_, (a, b) -> a.name().compareTo(b.name()));
+
+        var reg = new int[maxID + 1];
+        for (int i = 0; i != numVars; ++i) reg[vars_[i].id()] = firstVar_ + i;
+
+        int l = 0;
+        var k = new int[1]; // next instruction
+        for (var op : order) {
+            if (op instanceof Lit lit) {
+                lits_[l] = lit.get();
+                reg[op.id()] = l++;
+            } else if (op instanceof NaryOp) {
+                reg[op.id()] = reduce(op, op instanceof Sum ? Kind.Add : Kind.Mul, 0, op.numInputs(), reg, k);
+            } else if (!(op instanceof Var) && op != grad) {
+                int i = k[0]++;
+                code_[i] = op.kind().ordinal();
+                lhs_[i]  = reg[op.input(0).id()];
+                rhs_[i]  = reg[op.input(Math.min(1, op.numInputs() - 1)).id()];
+                acc_[i]  = reg[op.input(op.numInputs() - 1).id()];
+                reg[op.id()] = firstInstr_ + i;
+            }
+        }
+
+        if (grad != null) {
+            outputs_ = new int[grad.numInputs()];
+            for (int i = 0, e = outputs_.length; i != e; ++i) outputs_[i] = reg[grad.input(i).id()];
+        } else {
+            outputs_ = new int[] { reg[root.id()] };
+        }
+        regs_  = registers();
+        adj_   = new double[numRegisters()];
+        chunk_ = Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, Integer.highestOneBit(CACHE_DOUBLES / numRegisters())));
+    }
+
+    /// Emits binary @p kind instructions for inputs `[lo, hi)` of @p op, split like NaryOp.reduce, starting with
+    /// instruction `k[0]`. Returns the register holding the result.
+    private int reduce(Op op, Kind kind, int lo, int hi, int[] reg, int[] k) {
+        if (hi - lo == 1) return reg[op.input(lo).id()];
+        int mid = (lo + hi) >>> 1;
+        int x   = reduce(op, kind, lo, mid, reg, k);
+        int y   = reduce(op, kind, mid, hi, reg, k);
+        int i   = k[0]++;
+        code_[i] = kind.ordinal();
+        lhs_[i]  = x;
+        rhs_[i]  = y;
+        acc_[i]  = y;
+        return firstInstr_ + i;
+    }
+
+    /*
+     * getters
+     */
+
+    /// The free Vars in the order expected by eval, i.e. sorted by name.
+    public Var[] vars() { return vars_; }
+    public int numVars() { return vars_.length; }
+    /// 1 for an ordinary root; value plus one partial per Var for a Grad root.
+    public int numOutputs() { return outputs_.length; }
+    public int numInstrs() { return code_.length; }
+    public int numRegisters() { return firstInstr_ + code_.length; }
+    /// Number of lanes evaluated at once in batch mode.
+    public int chunk() { return chunk_; }
+
+    int firstVar() { return firstVar_; }
+    int firstInstr() { return firstInstr_; }
+    /// Register of output @p i.
+    int output(int i) { return outputs_[i]; }
+    /// Registers read by instruction @p k; the same register may show up more than once, e.g. for UnOps.
+    int lhs(int k) { return lhs_[k]; }
+    int rhs(int k) { return rhs_[k]; }
+    int acc(int k) { return acc_[k]; }
+
+    /// A fresh register file with the literal pool already in place.
+    public double[] registers() {
+        var regs = new double[numRegisters()];
+        System.arraycopy(lits_, 0, regs, 0, lits_.length);
+        return regs;
+    }
+
+    /*
+     * Eval
+     */
+
+    /// Same as Op.eval(double...) for the compiled root (the value for a Grad root). Not thread-safe.
+    public double eval(double... values) { return eval(values, null, regs_); }
+
+    /// Fills @p out with all outputs, i.e. the value followed by all partials for a Grad root. Not thread-safe.
+    public double eval(double[] values, double[] out) { return eval(values, out, regs_); }
+
+    /// Evaluates using the register file @p regs obtained from registers() and returns the first output.
+    /// Writes all outputs to @p out unless it is `null`.
+    public double eval(double[] values, double[] out, double[] regs) {
+        if (values.length != vars_.length)
+            throw new IllegalArgumentException("number of provided values does not match number of free variables");
+
+        System.arraycopy(values, 0, regs, firstVar_, values.length);
+        run(regs);
+        if (out != null) for (int i = 0, e = outputs_.length; i != e; ++i) out[i] = regs[outputs_[i]];
+        return regs[outputs_[0]];
+    }
+
+    private void run(double[] regs) {
+        var code = code_;
+        var lhs  = lhs_;
+        var rhs  = rhs_;
+        var acc  = acc_;
+        for (int k = 0, d = firstInstr_, e = code.length; k != e; ++k, ++d)
+            regs[d] = scalar(Kind.VALUES[code[k]], regs[lhs[k]], regs[rhs[k]], regs[acc[k]]);
+    }
+
+    /// Value of instruction @p k from the register file @p regs; isn't written back.
+    double step(double[] regs, int k) { return scalar(Kind.VALUES[code_[k]], regs[lhs_[k]], regs[rhs_[k]], regs[acc_[k]]); }
+
+    /// Same as scalar(Kind, double, double) but also takes the addend @p c of an Fma.
+    static double scalar(Kind kind, double a, double b, double c) {
+        return kind == Kind.Fma ? Math.fma(a, b, c) : scalar(kind, a, b);
+    }
+
+    static double scalar(Kind kind, double a, double b) {
+        return switch (kind) {
+            case Add -> a + b;
+            case Sub -> a - b;
+            case Mul -> a * b;
+            case Div -> a / b;
+            case Pow -> Math.pow(a, b);
+            case Neg -> -a;
+            case Exp -> Math.exp(a);
+            case Log -> Math.log(a);
+            case Sin -> Math.sin(a);
+            case Cos -> Math.cos(a);
+            default -> throw new IllegalStateException("unexpected " + kind + " on tape");
+        };
+    }
+
+    /*
+     * Reverse mode
+     */
+
+    /// Evaluates the first output at @p values and writes its partial derivative w.r.t. each of vars() to @p grad.
+    /// Unlike Op.backwards() this doesn't build anything: One forward sweep records all values in the registers,
+    /// one backward sweep accumulates adjoints. Not thread-safe.
+    public double gradient(double[] values, double[] grad) { return gradient(values, grad, regs_, adj_); }
+
+    /// Same as gradient(double[], double[]) with explicit scratch: @p regs from registers() and @p adj with
+    /// numRegisters() slots.
+    public double gradient(double[] values, double[] grad, double[] regs, double[] adj) {
+        double res = eval(values, null, regs);
+        Arrays.fill(adj, 0.0);
+        adj[outputs_[0]] = 1.0;
+
+        var code = code_;
+        var lhs  = lhs_;
+        var rhs  = rhs_;
+        for (int k = code.length, d = firstInstr_ + k; k-- != 0;) {
+            double g = adj[--d];
+            if (g == 0.0) continue; // doesn't contribute to the output
+            int    a = lhs[k];
+            int    b = rhs[k];
+            double x = regs[a];
+            double y = regs[b];
+            // @formatter:off
+            switch (Kind.VALUES[code[k]]) {
+                case Add -> { adj[a] += g;     adj[b] += g;     }
+                case Sub -> { adj[a] += g;     adj[b] -= g;     }
+                case Mul -> { adj[a] += g * y; adj[b] += g * x; }
+                case Div -> { adj[a] += g / y; adj[b] -= g * regs[d] / y; }
+                case Pow -> {
+                    adj[a] += g * y * Math.pow(x, y - 1.0);
+                    if (b >= firstVar_) adj[b] += g * regs[d] * Math.log(x); // Lit exponents don't need an adjoint
+                }
+                case Neg -> adj[a] -= g;
+                case Exp -> adj[a] += g * regs[d];
+                case Log -> adj[a] += g / x;
+                case Sin -> adj[a] += g * Math.cos(x);
+                case Cos -> adj[a] -= g * Math.sin(x);
+                case Fma -> { adj[a] += g * y; adj[b] += g * x; adj[acc_[k]] += g; }
+                default  -> throw new IllegalStateException("unexpected " + Kind.VALUES[code[k]] + " on tape");
+            }
+            // @formatter:on
+        }
+
+        System.arraycopy(adj, firstVar_, grad, 0, vars_.length);
+        return res;
+    }
+
+    /*
+     * Forward mode
+     */
+
+    /// Pushes `dirs.length` tangent directions through the Tape in a single forward sweep.
+    /// `dirs[j]` holds one entry per Var in vars() order; afterwards `outTangents[j][o]` is the derivative of output
+    /// `o` along `dirs[j]`, i.e. one Jacobian-vector product per direction. Writes all outputs to @p out unless it is
+    /// `null` and returns the first one. Not thread-safe.
+    public double jvp(double[] values, double[][] dirs, double[] out, double[][] outTangents) {
+        return jvp(values, dirs, out, outTangents, regs_, new double[numRegisters() * dirs.length]);
+    }
+
+    /// Same as jvp(double[], double[][], double[], double[][]) with explicit scratch: @p regs from registers() and
+    /// @p tan with `numRegisters() * dirs.length` slots.
+    public double jvp(double[] values, double[][] dirs, double[] out, double[][] outTangents, double[] regs,
+            double[] tan) {
+        if (values.length != vars_.length)
+            throw new IllegalArgumentException("number of provided values does not match number of free variables");
+        for (var dir : dirs)
+            if (dir.length != vars_.length)
+                throw new IllegalArgumentException("each direction needs one entry per free variable");
+
+        // tangent j of register r lives in tan[r * n + j]; Lits have none
+        int n = dirs.length;
+        System.arraycopy(values, 0, regs, firstVar_, values.length);
+        Arrays.fill(tan, 0, firstVar_ * n, 0.0);
+        for (int v = 0, e = vars_.length; v != e; ++v)
+            for (int j = 0; j != n; ++j) tan[(firstVar_ + v) * n + j] = dirs[j][v];
+
+        var code = code_;
+        var lhs  = lhs_;
+        var rhs  = rhs_;
+        for (int k = 0, d = firstInstr_, e = code.length; k != e; ++k, ++d) {
+            var    kind = Kind.VALUES[code[k]];
+            int    a    = lhs[k];
+            int    b    = rhs[k];
+            double x    = regs[a];
+            double y    = regs[b];
+            double r    = regs[d] = scalar(kind, x, y, regs[acc_[k]]);
+            double da, db = 0.0; // local partials w.r.t. lhs and rhs
+            // @formatter:off
+            switch (kind) {
+                case Add -> { da = 1.0;     db = 1.0;      }
+                case Sub -> { da = 1.0;     db = -1.0;     }
+                case Mul -> { da = y;       db = x;        }
+                case Div -> { da = 1.0 / y; db = -r / y;   }
+                case Pow -> {
+                    da = y * Math.pow(x, y - 1.0);
+                    if (b >= firstVar_) db = r * Math.log(x); // a Lit exponent has no tangent anyway
+                }
+                case Neg -> da = -1.0;
+                case Exp -> da = r;
+                case Log -> da = 1.0 / x;
+                case Sin -> da = Math.cos(x);
+                case Cos -> da = -Math.sin(x);
+                case Fma -> { da = y;       db = x;        }
+                default  -> throw new IllegalStateException("unexpected " + kind + " on tape");
+            }
+            // @formatter:on
+
+            int ta = a * n, tb = b * n, td = d * n;
+            if (db == 0.0) {
+                for (int j = 0; j != n; ++j) tan[td + j] = da * tan[ta + j];
+            } else {
+                for (int j = 0; j != n; ++j) tan[td + j] = da * tan[ta + j] + db * tan[tb + j];
+            }
+            if (kind == Kind.Fma) { // the addend passes its tangent through unchanged
+                int tc = acc_[k] * n;
+                for (int j = 0; j != n; ++j) tan[td + j] += tan[tc + j];
+            }
+        }
+
+        for (int o = 0, e = outputs_.length; o != e; ++o) {
+            if (out != null) out[o] = regs[outputs_[o]];
+            for (int j = 0; j != n; ++j) outTangents[j][o] = tan[outputs_[o] * n + j];
+        }
+        return regs[outputs_[0]];
+    }
+
+    /// The full numOutputs() x numVars() Jacobian at @p values from a single forward sweep with one tangent per Var.
+    /// Best suited for few Vars; for a single output with many Vars use gradient(double[], double[]) instead.
+    public double[][] jacobian(double[] values) {
+        int m    = vars_.length;
+        var dirs = new double[m][m];
+        for (int v = 0; v != m; ++v) dirs[v][v] = 1.0;
+        var cols = new double[m][outputs_.length];
+        jvp(values, dirs, null, cols);
+
+        var res = new double[outputs_.length][m];
+        for (int o = 0, e = outputs_.length; o != e; ++o)
+            for (int v = 0; v != m; ++v) res[o][v] = cols[v][o];
+        return res;
+    }
+
+    /*
+     * Batch eval
+     */
+
+    /// A fresh register file for batch mode: chunk() lanes per register with the literal pool already in place.
+    public double[] batchRegisters() {
+        var regs = new double[numRegisters() * chunk_];
+        for (int l = 0, e = lits_.length; l != e; ++l) Arrays.fill(regs, l * chunk_, (l + 1) * chunk_, lits_[l]);
+        return regs;
+    }
+
+    /// Evaluates the first output for each point; @p columns holds one column per Var in vars() order.
+    public double[] evalBatch(double[][] columns) {
+        var out = new double[numPoints(columns)];
+        evalBatch(columns, new double[][] { out });
+        return out;
+    }
+
+    /// Evaluates all outputs for each point; @p outs needs one column per output (value and partials for a Grad root).
+    public void evalBatch(double[][] columns, double[][] outs) {
+        evalBatch(columns, outs, 0, numPoints(columns), batchRegisters());
+    }
+
+    /// Evaluates the points in `[from, to)` chunk by chunk using @p regs obtained from batchRegisters().
+    /// Within a chunk one instruction is applied to all lanes before moving on to the next one.
+    void evalBatch(double[][] columns, double[][] outs, int from, int to, double[] regs) {
+        int c = chunk_;
+        for (int p = from; p < to; p += c) {
+            int n = Math.min(c, to - p);
+            for (int v = 0, e = vars_.length; v != e; ++v)
+                System.arraycopy(columns[v], p, regs, (firstVar_ + v) * c, n);
+
+            for (int k = 0, d = firstInstr_ * c, e = code_.length; k != e; ++k, d += c) {
+                var kind = Kind.VALUES[code_[k]];
+                int a    = lhs_[k] * c;
+                int b    = rhs_[k] * c;
+                int z    = acc_[k] * c;
+                if (SIMD && Simd.supports(kind))
+                    Simd.lanewise(kind, regs, d, a, b, z, n);
+                else
+                    lanewise(kind, regs, d, a, b, z, n);
+            }
+
+            for (int o = 0, e = Math.min(outs.length, outputs_.length); o != e; ++o)
+                System.arraycopy(regs, outputs_[o] * c, outs[o], p, n);
+        }
+    }
+
+    /*
+     * Parallel batch eval
+     */
+
+    /// Like evalBatch(double[][]) but splits the points across the common ForkJoinPool.
+    /// Results are bit-identical to evalBatch as each point is computed by the very same instructions.
+    public double[] evalAll(double[][] columns) {
+        var out = new double[numPoints(columns)];
+        evalAll(columns, new double[][] { out });
+        return out;
+    }
+
+    /// Like evalBatch(double[][], double[][]) but splits the points across the common ForkJoinPool.
+    public void evalAll(double[][] columns, double[][] outs) {
+        int n = numPoints(columns);
+        // ~4 slices per worker for load balancing, but never less than a few full chunks per slice
+        int slices = 4 * ForkJoinPool.getCommonPoolParallelism();
+        int grain  = Math.max(4 * chunk_, (n / slices + chunk_ - 1) / chunk_ * chunk_);
+        ForkJoinPool.commonPool().invoke(new Slice(columns, outs, 0, n, grain));
+    }
+
+    /// Evaluates `[from, to)` with its own batchRegisters(); the Tape itself is only read.
+    private final class Slice extends RecursiveAction {
+        @Serial private static final long serialVersionUID = 1L;
+
+        private final double[][] columns_;
+        private final double[][] outs_;
+        private final int        from_;
+        private final int        to_;
+        private final int        grain_;
+
+        Slice(double[][] columns, double[][] outs, int from, int to, int grain) {
+            columns_ = columns;
+            outs_    = outs;
+            from_    = from;
+            to_      = to;
+            grain_   = grain;
+        }
+
+        @Override protected void compute() {
+            if (to_ - from_ <= grain_) {
+                evalBatch(columns_, outs_, from_, to_, batchRegisters());
+            } else {
+                int mid = from_ + (to_ - from_) / 2 / chunk_ * chunk_; // split at chunk boundary
+                invokeAll(new Slice(columns_, outs_, from_, mid, grain_), new Slice(columns_, outs_, mid, to_, grain_));
+            }
+        }
+    }
+
+    /// Scalar fallback for Simd.lanewise; one loop per Kind so the switch is hoisted out of the lanes.
+    private static void lanewise(Kind kind, double[] r, int d, int a, int b, int c, int n) {
+        // @formatter:off
+        switch (kind) {
+            case Add -> { for (int i = 0; i != n; ++i) r[d + i] = r[a + i] + r[b + i]; }
+            case Sub -> { for (int i = 0; i != n; ++i) r[d + i] = r[a + i] - r[b + i]; }
+            case Mul -> { for (int i = 0; i != n; ++i) r[d + i] = r[a + i] * r[b + i]; }
+            case Div -> { for (int i = 0; i != n; ++i) r[d + i] = r[a + i] / r[b + i]; }
+            case Pow -> { for (int i = 0; i != n; ++i) r[d + i] = Math.pow(r[a + i], r[b + i]); }
+            case Neg -> { for (int i = 0; i != n; ++i) r[d + i] = -r[a + i]; }
+            case Exp -> { for (int i = 0; i != n; ++i) r[d + i] = Math.exp(r[a + i]); }
+            case Log -> { for (int i = 0; i != n; ++i) r[d + i] = Math.log(r[a + i]); }
+            case Sin -> { for (int i = 0; i != n; ++i) r[d + i] = Math.sin(r[a + i]); }
+            case Cos -> { for (int i = 0; i != n; ++i) r[d + i] = Math.cos(r[a + i]); }
+            case Fma -> { for (int i = 0; i != n; ++i) r[d + i] = Math.fma(r[a + i], r[b + i], r[c + i]); }
+            default  -> throw new IllegalStateException("unexpected " + kind + " on tape");
+        }
+        // @formatter:on
+    }
+
+    private int numPoints(double[][] columns) {
+        if (columns.length != vars_.length)
+            throw new IllegalArgumentException("number of provided columns does not match number of free variables");
+        if (columns.length == 0) return 1; // closed term: a single point
+        int n = columns[0].length;
+        for (var column : columns)
+            if (column.length != n) throw new IllegalArgumentException("all columns must have the same length");
+        return n;
+    }
+}
@@ -1,40 +1,5 @@
 package mll;
 
-class Pos {
-    Pos(int row, int col) {
-        this.row = row;
-        this.col = col;
-    }
-
-    @Override public Pos clone() { return new Pos(row, col); }
-
-    @Override public String toString() { return String.format("%d:%d", row, col); }
-
-    @Override public boolean equals(Object obj) { return (obj instanceof Pos pos) && row == pos.row && col == pos.col; }
-
-    public int row;
-    public int col;
-}
-
-class Loc {
-    Loc(String file, Pos begin, Pos finis) {
-        this.file  = file;
-        this.begin = begin;
-        this.finis = finis;
-    }
-
-    Loc copy() { return new Loc(file, begin.clone(), finis.clone()); }
-
-    @Override public String toString() {
-        if (begin.equals(finis)) return String.format("%s:%s", file, begin);
-        return String.format("%s:%s-%s", file, begin, finis);
-    }
-
-    String file;
-    Pos    begin;
-    Pos    finis;
-}
-
 public class Tok {
     enum Tag {
         K_let, K_log, K_exp, K_sin, K_cos, O_add, O_sub, O_mul, O_pow, O_div, D_paren_l, D_paren_r, M_id, M_lit, M_eof,
@@ -87,7 +52,7 @@ public class Tok {
         id_  = id;
     }
 
-    public Tok(Loc loc, float f) {
+    public Tok(Loc loc, double f) {
         loc_ = loc;
         tag_ = Tag.M_lit;
         f_   = f;
@@ -101,7 +66,7 @@ public class Tok {
         return id_;
     }
 
-    public float lit() {
+    public double lit() {
         assert tag_ == Tag.M_lit;
         return f_;
     }
@@ -109,13 +74,13 @@ public class Tok {
     @Override public String toString() {
         return switch (tag()) {
             case M_id -> id();
-            case M_lit -> Float.toString(f_);
+            case M_lit -> Double.toString(f_);
             default -> tag().toString();
         };
     }
 
     private Tag    tag_;
     private Loc    loc_;
-    private float  f_;
+    private double f_;
     private String id_;
 }
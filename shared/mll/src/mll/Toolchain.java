@@ -0,0 +1,162 @@
+package mll;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/// Asynchronous counterpart to the LLVM functions in Util for compiling many modules at once.
+/// At most one toolchain process per core runs at a time, stdout and stderr of each process are drained
+/// concurrently, and each job may time out or be cancelled - which kills its process.
+/// Jobs for the same output file share one future while in flight; finished cache entries cost no process at all.
+public final class Toolchain {
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(5);
+
+    public record Result(int exitCode, String out, String err) {}
+
+    private static final ExecutorService PROCESSES = Executors
+            .newFixedThreadPool(Runtime.getRuntime().availableProcessors(), Toolchain::daemon);
+    private static final ExecutorService PUMPS     = Executors.newCachedThreadPool(Toolchain::daemon);
+
+    private static final ConcurrentHashMap<String, CompletableFuture<String>> PENDING = new ConcurrentHashMap<>();
+
+    private Toolchain() {}
+
+    /// Runs @p command once a process slot is free.
+    /// The future fails with a TimeoutException after @p timeout; cancelling it kills the process.
+    public static CompletableFuture<Result> run(Duration timeout, String... command) {
+        var res  = new CompletableFuture<Result>();
+        var proc = new AtomicReference<Process>();
+        res.whenComplete((r, t) -> {
+            var p = proc.get();
+            if (p != null && p.isAlive()) p.destroyForcibly(); // cancelled or timed out
+        });
+
+        PROCESSES.execute(() -> {
+            if (res.isDone()) return; // cancelled while queued
+            try {
+                var p = new ProcessBuilder(command).start();
+                proc.set(p);
+                if (res.isDone()) { // cancelled while starting
+                    p.destroyForcibly();
+                    return;
+                }
+                var out = CompletableFuture.supplyAsync(() -> drain(p.getInputStream()), PUMPS);
+                var err = CompletableFuture.supplyAsync(() -> drain(p.getErrorStream()), PUMPS);
+                if (!p.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                    res.completeExceptionally(new TimeoutException(String.join(" ", command) + " timed out"));
+                    return;
+                }
+                res.complete(new Result(p.exitValue(), out.join(), err.join()));
+            } catch (IOException | RuntimeException e) {
+                res.completeExceptionally(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                res.completeExceptionally(e);
+            }
+        });
+        return res;
+    }
+
+    /// Asynchronous Util.saveLLVMOpt.
+    public static CompletableFuture<String> opt(String filename, int optLevel) {
+        return opt(filename, optLevel, DEFAULT_TIMEOUT);
+    }
+
+    public static CompletableFuture<String> opt(String filename, int optLevel, Duration timeout) {
+        return job(Util.optPath(filename, optLevel), timeout, tmp -> Util.optCommand(filename, optLevel, tmp));
+    }
+
+    /// Asynchronous Util.saveLLVMShared.
+    public static CompletableFuture<String> shared(String filename, int optLevel) {
+        return shared(filename, optLevel, DEFAULT_TIMEOUT);
+    }
+
+    public static CompletableFuture<String> shared(String filename, int optLevel, Duration timeout) {
+        return job(Util.sharedPath(filename, optLevel), timeout, tmp -> Util.sharedCommand(filename, optLevel, tmp));
+    }
+
+    /// Optimizes all @p filenames in parallel; the result lists the optimized files in the same order.
+    /// `opt` only takes one module per invocation, so batching happens here: duplicates share a single job and
+    /// modules already in the cache are skipped.
+    public static CompletableFuture<List<String>> optAll(List<String> filenames, int optLevel) {
+        var futures = new ArrayList<CompletableFuture<String>>();
+        for (var filename : filenames) futures.add(opt(filename, optLevel));
+        var all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+        var res = all.thenApply(v -> futures.stream().map(CompletableFuture::join).toList());
+        res.whenComplete((r, t) -> {
+            if (res.isCancelled()) futures.forEach(f -> f.cancel(true));
+        });
+        return res;
+    }
+
+    /// Runs the command for @p filepath unless it is cached or already in flight.
+    /// The command writes into a temporary file, which only a successful job moves into place; so a failed, timed
+    /// out, or cancelled job - or a crashed JVM - never leaves anything behind that looks cached.
+    private static CompletableFuture<String> job(String filepath, Duration timeout,
+            Function<String, String[]> command) {
+        if (Util.isCached(filepath)) return CompletableFuture.completedFuture(filepath);
+
+        var res = PENDING.computeIfAbsent(filepath, k -> {
+            try {
+                Files.createDirectories(Paths.get(filepath).getParent());
+                var tmp     = Util.tempPath(filepath);
+                var process = run(timeout, command.apply(tmp));
+                var job     = process.thenApply(r -> {
+                    try {
+                        if (r.exitCode() != 0) throw new IOException(filepath + ": " + r.err().strip());
+                        Util.publish(tmp, filepath);
+                        return filepath;
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+                job.whenComplete((r, t) -> {
+                    if (job.isCancelled()) process.cancel(true);
+                    delete(tmp); // already gone after publishing
+                });
+                return job;
+            } catch (IOException | RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        });
+        res.whenComplete((r, t) -> PENDING.remove(filepath, res));
+        return res;
+    }
+
+    private static String drain(InputStream in) {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void delete(String filepath) {
+        try {
+            Files.deleteIfExists(Paths.get(filepath));
+        } catch (IOException e) {
+            // nothing left to clean up
+        }
+    }
+
+    private static Thread daemon(Runnable r) {
+        var thread = new Thread(r, "mll-toolchain");
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -13,12 +13,22 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 public class Util {
 
+	/**
+	 * Whether bulk evaluations like gety may fan out across the common ForkJoinPool.
+	 */
+	public enum Parallelism {
+		Sequential, Parallel
+	}
+
 	/**
 	 * Plot a single function y(x) and store the result as a PNG file on disk.
 	 */
@@ -57,6 +67,13 @@ public class Util {
 		System.out.println("Rendered dot file: " + filepath);
 	}
 	
+	/**
+	 * Directory below out/llvm for content-addressed artifacts, see Op.llvmCached().
+	 */
+	static final String LLVM_CACHE = "cache";
+
+	private static final AtomicLong TEMPS = new AtomicLong();
+
 	/**
 	 * Run the provided LLVM program.
 	 */
@@ -78,22 +95,30 @@ public class Util {
 	public static String saveLLVMOpt(String filename, int optLevel) throws IOException {
 
 		Files.createDirectories(Paths.get("out/llvm"));
-		String filepath = Paths.get("out/llvm", filename + getOptLevelCode(optLevel) + ".ll").toString();
-		String[] command;
-		if (isLLVMAvailable()) {
-			command = new String[] { "opt", getOptLevelCode(optLevel), "out/llvm/" + filename + ".ll", "-So",
-					"out/llvm/" + (filename + getOptLevelCode(optLevel) + ".ll") };
-		} else {
-			command = new String[] { "docker", "exec", "-t", "mll_docker", "opt", getOptLevelCode(optLevel),
-					"/home/jovyan/mll/out/llvm/" + filename + ".ll", "-So",
-					"/home/jovyan/mll/out/llvm/" + (filename + getOptLevelCode(optLevel) + ".ll") };
-		}
-		runCommand(command);
+		String filepath = optPath(filename, optLevel);
+		if (isCached(filepath)) return filepath;
+
+		runInto(filepath, tmp -> optCommand(filename, optLevel, tmp));
 		System.out.println("Optimized LLVM code: " + filepath);
 
 		return filepath;
 	}
 
+	/**
+	 * Compile the provided LLVM program into a shared library that can be loaded in-process, e.g. via NativeKernel.
+	 * Requires a local clang as the library must match the platform of the running JVM.
+	 */
+	public static String saveLLVMShared(String filename, int optLevel) throws IOException {
+		Files.createDirectories(Paths.get("out/llvm"));
+		String filepath = sharedPath(filename, optLevel);
+		if (isCached(filepath)) return filepath;
+
+		runInto(filepath, tmp -> sharedCommand(filename, optLevel, tmp));
+		System.out.println("Shared library: " + filepath);
+
+		return filepath;
+	}
+
 	/**
 	 * Display plot of a single function y(x) in a Jupyter notebook.
 	 */
@@ -130,7 +155,20 @@ public class Util {
 	}
 	
 	public static double[] gety(double[] x, final Op out) {
-		return gety(x, x_ -> out.eval(x_));
+		return gety(x, out, Parallelism.Sequential);
+	}
+
+	/**
+	 * Evaluate out at each point of x without boxing; out must have exactly one free variable.
+	 * Both modes yield bit-identical results.
+	 */
+	public static double[] gety(double[] x, final Op out, Parallelism parallelism) {
+		var tape = out.compile();
+		var columns = new double[][] { x };
+		return switch (parallelism) {
+		case Sequential -> tape.evalBatch(columns);
+		case Parallel -> tape.evalAll(columns);
+		};
 	}
 	
 	private static XYChart getChart(double[] x, double[] y, String plotName) {
@@ -144,7 +182,7 @@ public class Util {
 		return chart;
 	}
 
-	private static String getOptLevelCode(int optLevel) {
+	static String getOptLevelCode(int optLevel) {
 		return switch (optLevel) {
 		case 0 -> "-O0";
 		case 1 -> "-O1";
@@ -154,7 +192,79 @@ public class Util {
 		};
 	}
 
-	private static boolean isLLVMAvailable() {
+	static String optPath(String filename, int optLevel) {
+		return Paths.get("out/llvm", filename + getOptLevelCode(optLevel) + ".ll").toString();
+	}
+
+	static String sharedPath(String filename, int optLevel) {
+		return Paths.get("out/llvm", filename + getOptLevelCode(optLevel) + ".so").toString();
+	}
+
+	/**
+	 * Command that optimizes filename into output, which must be below out/llvm so the docker container sees it.
+	 */
+	static String[] optCommand(String filename, int optLevel, String output) {
+		if (isLLVMAvailable()) {
+			return new String[] { "opt", getOptLevelCode(optLevel), "out/llvm/" + filename + ".ll", "-So", output };
+		}
+		return new String[] { "docker", "exec", "-t", "mll_docker", "opt", getOptLevelCode(optLevel),
+				"/home/jovyan/mll/out/llvm/" + filename + ".ll", "-So", "/home/jovyan/mll/" + output };
+	}
+
+	static String[] sharedCommand(String filename, int optLevel, String output) {
+		if (!isLLVMAvailable())
+			throw new IllegalStateException("clang is required to build a shared library for the running JVM");
+		return new String[] { "clang", getOptLevelCode(optLevel), "-shared", "-fPIC", "out/llvm/" + filename + ".ll",
+				"-o", output };
+	}
+
+	/**
+	 * A fresh name next to filepath for a tool to write into before publish() moves it into place.
+	 */
+	static String tempPath(String filepath) {
+		return filepath + "." + ProcessHandle.current().pid() + "-" + TEMPS.incrementAndGet() + ".tmp";
+	}
+
+	/**
+	 * Atomically renames tmp to filepath, so a cached artifact is either complete or not there at all.
+	 */
+	static void publish(String tmp, String filepath) throws IOException {
+		Files.move(Paths.get(tmp), Paths.get(filepath), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Runs the command writing filepath into a temporary file and publishes that only if the command succeeds: A
+	 * failed or killed tool must not leave anything behind that isCached() would take for the real thing.
+	 */
+	private static void runInto(String filepath, Function<String, String[]> command) throws IOException {
+		String tmp = tempPath(filepath);
+		try {
+			int exitCode = runCommand(command.apply(tmp));
+			if (exitCode != 0)
+				throw new IOException("could not build " + filepath + ": exit code " + exitCode);
+			publish(tmp, filepath);
+		} finally {
+			Files.deleteIfExists(Paths.get(tmp));
+		}
+	}
+
+	/**
+	 * Artifacts in the content-addressed cache are named after what they contain: If one exists, it is up to date.
+	 */
+	static boolean isCached(String filepath) {
+		return Paths.get(filepath).startsWith(Paths.get("out/llvm", LLVM_CACHE)) && Files.exists(Paths.get(filepath));
+	}
+
+	private static boolean isLLVMAvailable() { return LLVMProbe.AVAILABLE; }
+
+	/**
+	 * Probes for a local LLVM toolchain once, on first use.
+	 */
+	private static final class LLVMProbe {
+		static final boolean AVAILABLE = probeLLVM();
+	}
+
+	private static boolean probeLLVM() {
 		try {
 			var process = new ProcessBuilder("clang", "--version").start();
 			int exitCode = process.waitFor();
@@ -178,21 +288,31 @@ public class Util {
 		}
 	}
 
-	private static void runCommand(String[] command) {
+	private static int runCommand(String[] command) {
 		try {
 			ProcessBuilder processBuilder = new ProcessBuilder(command);
 			Process process = processBuilder.start();
 			var inputStream = process.getInputStream();
 			var errorStream = process.getErrorStream();
 
+			// drain stderr concurrently: a full stderr pipe would otherwise block the process and thus us
+			var errorPump = new Thread(() -> {
+				try {
+					printInputStream(errorStream);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			errorPump.start();
 			printInputStream(inputStream);
-			printInputStream(errorStream);
+			errorPump.join();
 
 			int exitCode = process.waitFor();
 
 			if (exitCode != 0) {
 				System.err.println("Program execution failed with exit code " + exitCode);
 			}
+			return exitCode;
 
 		} catch (IOException | InterruptedException e) {
 			throw new RuntimeException(e);
@@ -8,4 +8,5 @@ module mll {
 	requires guru.nidi.graphviz;
 	requires org.knowm.xchart;
 	requires java.desktop;
+	requires jdk.incubator.vector;
 }
\ No newline at end of file
@@ -0,0 +1,117 @@
+package mll;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DAGFileTest {
+    @TempDir Path dir_;
+
+    /// Covers every kind of record: Lit, Var, UnOp, BinOp, Fma, Sum, Product, and Grad.
+    private static Op[] build(DAG dag) {
+        var x = dag.x();
+        var y = dag.y();
+        var z = dag.var("zeta");
+        var f = Sum.c(x.mul(y).sin(), Product.c(x, y, z).exp(), Fma.c(x, z, dag.lit(3.5)), y.div(z).log().neg());
+        return new Op[] { f, f.backwards(), x.pow(dag.lit(-0.25)).cos() };
+    }
+
+    private Path save(Op... roots) throws IOException {
+        var file = dir_.resolve("dag.bin");
+        DAGFile.save(file, roots);
+        return file;
+    }
+
+    private Path write(byte[] bytes) throws IOException { return Files.write(dir_.resolve("corrupt.bin"), bytes); }
+
+    private static ByteBuffer header(int size, int numNodes, int numRoots) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(DAGFile.MAGIC).putInt(DAGFile.VERSION).putInt(numNodes).putInt(numRoots);
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        var roots  = build(new DAG());
+        var loaded = DAGFile.load(save(roots));
+        assertEquals(roots.length, loaded.length);
+        for (int i = 0; i != roots.length; ++i) assertEquals(roots[i].fingerprint(), loaded[i].fingerprint());
+        assertEquals(roots[0].eval(1.5, -2, 0.75), loaded[0].eval(1.5, -2, 0.75));
+    }
+
+    @Test
+    void loadUnifiesWithExistingOps() throws IOException {
+        var dag    = new DAG();
+        var roots  = build(dag);
+        int size   = dag.size();
+        var loaded = DAGFile.load(dag, save(roots));
+        for (int i = 0; i != roots.length; ++i) assertSame(roots[i], loaded[i]);
+        assertEquals(size, dag.size());
+    }
+
+    @Test
+    void truncatedFilesAreRejected() throws IOException {
+        var bytes = Files.readAllBytes(save(build(new DAG())));
+        for (int n = 0; n != bytes.length; ++n) {
+            var file = write(Arrays.copyOf(bytes, n));
+            assertThrows(IOException.class, () -> DAGFile.load(file), "truncated to " + n + " bytes");
+        }
+    }
+
+    @Test
+    void badHeadersAreRejected() throws IOException {
+        var bytes = Files.readAllBytes(save(build(new DAG())));
+        var magic = bytes.clone();
+        magic[0] ^= 1;
+        assertThrows(IOException.class, () -> DAGFile.load(write(magic)));
+        var version = bytes.clone();
+        ++version[Integer.BYTES];
+        assertThrows(IOException.class, () -> DAGFile.load(write(version)));
+    }
+
+    @Test
+    void hugeCountsAreRejected() throws IOException {
+        // would reserve and allocate billions of Ops if taken at face value
+        var nodes = header(64, Integer.MAX_VALUE, 1);
+        assertThrows(IOException.class, () -> DAGFile.load(write(nodes.array())));
+        var roots = header(64, 0, Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> DAGFile.load(write(roots.array())));
+
+        var name = header(64, 1, 1).put((byte) Kind.Var.ordinal()).putInt(Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> DAGFile.load(write(name.array())));
+        var sum = header(64, 2, 1).put((byte) Kind.Lit.ordinal()).putLong(0).put((byte) Kind.Sum.ordinal())
+                .putInt(Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> DAGFile.load(write(sum.array())));
+    }
+
+    @Test
+    void negativeCountsAreRejected() throws IOException {
+        var name = header(64, 1, 1).put((byte) Kind.Var.ordinal()).putInt(-1);
+        assertThrows(IOException.class, () -> DAGFile.load(write(name.array())));
+        var sum = header(64, 2, 1).put((byte) Kind.Lit.ordinal()).putLong(0).put((byte) Kind.Sum.ordinal()).putInt(-3);
+        assertThrows(IOException.class, () -> DAGFile.load(write(sum.array())));
+        var nodes = header(64, -1, 1);
+        assertThrows(IOException.class, () -> DAGFile.load(write(nodes.array())));
+    }
+
+    @Test
+    void badInputsAreRejected() throws IOException {
+        // an input referring to the node itself, and a Grad whose "Var" is a Lit
+        var self = header(64, 1, 1).put((byte) Kind.Neg.ordinal()).putInt(0);
+        assertThrows(IOException.class, () -> DAGFile.load(write(self.array())));
+        var grad = header(64, 2, 1).put((byte) Kind.Lit.ordinal()).putLong(0).put((byte) Kind.Grad.ordinal())
+                .putInt(1).putInt(0).putInt(1).putInt(0);
+        assertThrows(IOException.class, () -> DAGFile.load(write(grad.array())));
+        var kind = header(64, 1, 1).put((byte) -1);
+        assertThrows(IOException.class, () -> DAGFile.load(write(kind.array())));
+    }
+}
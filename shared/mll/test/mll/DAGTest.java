@@ -0,0 +1,131 @@
+package mll;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class DAGTest {
+    private static final int THREADS = 8;
+    private static final int EXPRS   = 2_000;
+
+    /// Builds expression @p i; shares plenty of subexpressions with its neighbors, so threads race for the same Ops.
+    private static Op build(DAG dag, int i) {
+        var x = dag.x();
+        var y = dag.var("y" + i % 7);
+        var a = x.mul(dag.lit(i % 13)).add(y);
+        var b = a.sin().mul(y.exp()).sub(dag.lit(i % 5).div(x.add(dag.lit2())));
+        return b.pow(dag.lit(i % 3)).add(a.mul(b).cos());
+    }
+
+    /// Each thread builds all expressions in its own order, all starting at once.
+    private static Op[][] race(DAG dag) throws Exception {
+        var barrier = new CyclicBarrier(THREADS);
+        var tasks   = new ArrayList<Callable<Op[]>>();
+        for (int t = 0; t != THREADS; ++t) {
+            var order = new ArrayList<Integer>();
+            for (int i = 0; i != EXPRS; ++i) order.add(i);
+            Collections.shuffle(order, new Random(t));
+            tasks.add(() -> {
+                var res = new Op[EXPRS];
+                barrier.await();
+                for (int i : order) res[i] = build(dag, i);
+                return res;
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            var res = new Op[THREADS][];
+            List<Future<Op[]>> futures = pool.invokeAll(tasks);
+            for (int t = 0; t != THREADS; ++t) res[t] = futures.get(t).get();
+            return res;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /// Structural key of @p op in terms of its inputs' IDs.
+    private static String key(Op op) {
+        var res = new StringBuilder(op.kind().toString());
+        if (op instanceof Lit lit) res.append(' ').append(Double.doubleToLongBits(lit.get()));
+        if (op instanceof Var var) res.append(' ').append(var.name());
+        for (int i = 0, e = op.numInputs(); i != e; ++i) res.append(' ').append(op.input(i).id());
+        return res.toString();
+    }
+
+    @Test
+    void concurrentUnifiesAcrossThreads() throws Exception {
+        for (int round = 0; round != 5; ++round) {
+            var dag   = new DAG(true);
+            var roots = race(dag);
+
+            // equal Ops are the same Op, no matter which thread built them
+            for (int t = 1; t != THREADS; ++t)
+                for (int i = 0; i != EXPRS; ++i) assertSame(roots[0][i], roots[t][i]);
+
+            // IDs are exactly 0 .. size() - 1 and each Op is there once
+            int n    = dag.size();
+            var keys = new HashSet<String>();
+            for (int id = 0; id != n; ++id) {
+                var op = dag.nodes().op(id);
+                assertNotNull(op, "hole at ID " + id);
+                assertEquals(id, op.id());
+                assertTrue(keys.add(key(op)), "duplicate " + key(op));
+            }
+            assertEquals(n, keys.size());
+
+            // everything reachable lives in this dense range
+            for (var op : Op.topo(roots[0])) {
+                assertTrue(op.id() < n, "ID " + op.id() + " beyond size " + n);
+                assertSame(op, dag.nodes().op(op.id()));
+            }
+        }
+    }
+
+    @Test
+    void concurrentMatchesSequential() throws Exception {
+        var seq = new DAG();
+        for (int i = 0; i != EXPRS; ++i) build(seq, i);
+        var par = new DAG(true);
+        race(par);
+        // the threads hand out IDs in another order, but must end up with just as many Ops
+        assertEquals(seq.size(), par.size());
+    }
+
+    @Test
+    void staleOpsAreRejected() {
+        var dag = new DAG();
+        var f   = dag.x().mul(dag.y());
+        dag.clear();
+        var w = dag.var("w");
+        // f's inputs have the IDs 0 and 1 - just like w and whatever comes next - in the new Nodes
+        assertThrows(IllegalArgumentException.class, () -> f.add(w));
+        assertThrows(IllegalArgumentException.class, () -> w.mul(f));
+        assertThrows(IllegalArgumentException.class, () -> Sum.c(w, f, dag.lit2()));
+
+        var a = w.sin();
+        var b = w.cos();
+        dag.collect(b);
+        assertThrows(IllegalArgumentException.class, () -> a.add(b));
+        assertEquals("(cos(w))", b.toString());
+        assertEquals(b.add(w), w.add(b)); // live Ops are fine
+
+        var other = new DAG();
+        assertThrows(IllegalArgumentException.class, () -> other.x().add(w));
+    }
+}
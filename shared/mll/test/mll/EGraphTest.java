@@ -0,0 +1,102 @@
+package mll;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+
+import org.junit.jupiter.api.Test;
+
+class EGraphTest {
+    /// @p op at @p at for x, y, and z - even if the rewrites dropped some of them.
+    private static double eval(Op op, double[] at) {
+        var dag = op.dag();
+        var env = new HashMap<Op, Double>();
+        env.put(dag.x(), at[0]);
+        env.put(dag.y(), at[1]);
+        env.put(dag.z(), at[2]);
+        return op.eval(env);
+    }
+
+    private static void assertSameValues(Op expected, Op actual) {
+        for (var at : TapeTest.points(3)) {
+            double value = eval(expected, at);
+            assertEquals(value, eval(actual, at), 1e-12 * Math.max(1, Math.abs(value)));
+        }
+    }
+
+    private static boolean hasFma(Op root) {
+        for (var op : root.topo())
+            if (op instanceof Fma) return true;
+        return false;
+    }
+
+    @Test
+    void neverMoreExpensive() {
+        var dag = new DAG();
+        var x   = dag.x();
+        var y   = dag.y();
+        var z   = dag.z();
+        var fs  = new Op[] {
+            TapeTest.everyKind(dag),
+            x.mul(y).add(x.mul(z)),
+            x.sub(x).add(y.div(y)).mul(z),
+            x.pow(dag.lit(3)).mul(x).div(x.mul(x)),
+            z.neg().neg().mul(dag.lit(-1)).add(y.exp().log()),
+            Product.c(x, y, z, x, y.sin()),
+            x.backwards(),
+            x.mul(y).sin().backwards(x, y),
+        };
+        for (var f : fs) {
+            var opt = f.saturate();
+            assertTrue(PassManager.cost(opt) <= PassManager.cost(f), f.toString());
+            if (!(f instanceof Grad)) assertSameValues(f, opt);
+        }
+    }
+
+    @Test
+    void factorsCommonFactors() {
+        var dag = new DAG();
+        var x   = dag.x().sin();
+        var f   = x.mul(dag.y()).add(x.mul(dag.z()));
+        var opt = f.saturate();
+        assertTrue(PassManager.cost(opt) < PassManager.cost(f));
+        assertSameValues(f, opt);
+    }
+
+    @Test
+    void fmaIsDecomposed() {
+        var dag = new DAG();
+        var x   = dag.x();
+        var y   = dag.y();
+        var z   = dag.z();
+        // (x / y) * y + z = x + z, which is only found once the Fma is a Mul and an Add
+        var f   = Fma.c(x.div(y), y, z);
+        var opt = f.saturate();
+        assertTrue(PassManager.cost(opt) < PassManager.cost(f));
+        assertFalse(hasFma(opt));
+        assertSameValues(f, opt);
+
+        // and optimize() fuses what's left into Fmas again
+        var g = Fma.c(x, y, z.div(y).mul(y));
+        assertFalse(hasFma(g.saturate()));
+        assertTrue(hasFma(g.saturate().optimize()));
+        assertSameValues(g, g.saturate().optimize());
+    }
+
+    @Test
+    void smallBudgetTerminates() {
+        var dag   = new DAG();
+        var x     = dag.x();
+        var y     = dag.y();
+        var terms = new Op[64];
+        for (int i = 0; i != terms.length; ++i) terms[i] = x.mul(dag.lit(i + 1)).add(y).mul(x.add(dag.lit(i)));
+        var f = Sum.c(terms);
+        for (int budget : new int[] { 0, 1, 10, 100 }) {
+            var opt = EGraph.optimize(f, budget);
+            assertTrue(PassManager.cost(opt) <= PassManager.cost(f));
+            assertSameValues(f, opt);
+        }
+    }
+}
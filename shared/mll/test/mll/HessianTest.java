@@ -0,0 +1,100 @@
+package mll;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class HessianTest {
+    private static final int N = 8;
+
+    private static Var[] vars(DAG dag) {
+        var res = new Var[N];
+        for (int i = 0; i != N; ++i) res[i] = dag.var("x" + i); // so freeVars() keeps this order
+        return res;
+    }
+
+    /// `sum sin(x_i * x_{i+1}) + x_0^3 + exp(x_7)`: tridiagonal.
+    private static Op chain(Var[] x) {
+        var terms = new Op[N + 1];
+        for (int i = 0; i + 1 != N; ++i) terms[i] = x[i].mul(x[i + 1]).sin();
+        terms[N - 1] = x[0].pow(x[0].lit(3));
+        terms[N]     = x[N - 1].exp();
+        return Sum.c(terms);
+    }
+
+    /// Couples x0 with x1 and x4, x2 with x3, and x5, x6, x7 with each other - through Div, Pow, Fma, and Product.
+    private static Op blocks(Var[] x) {
+        return Sum.c(x[0].div(x[1]), x[4].pow(x[0]), Fma.c(x[2], x[3], x[1].cos()), Product.c(x[5], x[6], x[7].log()));
+    }
+
+    private static double[] point(Random rng) {
+        var res = new double[N];
+        for (int i = 0; i != N; ++i) res[i] = 0.5 + rng.nextDouble();
+        return res;
+    }
+
+    /// The Hessian by calling backwards() on each partial, evaluated at @p at.
+    private static double[][] dense(Op f, Var[] x, double[] at) {
+        var grad = f.backwards(x);
+        var res  = new double[N][N];
+        for (int i = 0; i != N; ++i) {
+            var row = grad.input(i + 1).backwards(x);
+            for (int j = 0; j != N; ++j) {
+                var env = new HashMap<Op, Double>();
+                for (int k = 0; k != N; ++k) env.put(x[k], at[k]);
+                res[i][j] = row.input(j + 1).eval(env);
+            }
+        }
+        return res;
+    }
+
+    private static void check(Op f, Var[] x) {
+        var hess = f.hessian();
+        var rng  = new Random(5);
+        for (int p = 0; p != 10; ++p) {
+            var at       = point(rng);
+            var expected = dense(f, x, at);
+            var actual   = hess.eval(at); // 0 outside the pattern, so it must be exactly where the dense one is nonzero
+            for (int i = 0; i != N; ++i)
+                for (int j = 0; j != N; ++j) assertEquals(expected[i][j], actual[i][j], 1e-12, i + ", " + j);
+
+            // H v against the dense product, v as Lit%s
+            var v   = new Op[N];
+            var dir = new double[N];
+            for (int i = 0; i != N; ++i) v[i] = f.lit(dir[i] = rng.nextDouble() * 2 - 1);
+            var out = new double[N + 1];
+            f.hvp(v).compile().eval(at, out);
+            for (int i = 0; i != N; ++i) {
+                double dot = 0.0;
+                for (int j = 0; j != N; ++j) dot += expected[i][j] * dir[j];
+                assertEquals(dot, out[i + 1], 1e-12);
+            }
+        }
+    }
+
+    @Test
+    void tridiagonal() {
+        var x    = vars(new DAG());
+        var f    = chain(x);
+        var hess = f.hessian();
+        assertEquals(N + 2 * (N - 1), hess.nnz());
+        assertEquals(3, hess.numColors());
+        for (int k = 0; k != hess.nnz(); ++k) assertTrue(Math.abs(hess.row(k) - hess.col(k)) <= 1);
+        check(f, x);
+    }
+
+    @Test
+    void blockPattern() {
+        var x    = vars(new DAG());
+        var f    = blocks(x);
+        var hess = f.hessian();
+        // x0: x0, x1, x4; x1: x0, x1; x2: x3; x3: x2; x4: x0, x4; x5 - x7: all but the diagonals of x5 and x6
+        assertEquals(3 + 2 + 1 + 1 + 2 + 7, hess.nnz());
+        check(f, x);
+        check(chain(x).add(f), x);
+    }
+}
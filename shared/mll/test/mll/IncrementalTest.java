@@ -0,0 +1,84 @@
+package mll;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class IncrementalTest {
+    private static void assertBits(double expected, double actual) {
+        assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+    }
+
+    @Test
+    void randomSetsMatchFullEval() {
+        var dag = new DAG();
+        for (var f : new Op[] { TapeTest.everyKind(dag), TapeTest.everyKind(dag).backwards() }) {
+            var tape     = f.compile();
+            var ref      = f.compile(); // own registers, so nothing is shared with the Incremental
+            int n        = tape.numOutputs();
+            var at       = TapeTest.points(3)[0].clone();
+            var inc      = new Incremental(tape, at);
+            var out      = new double[n];
+            var expected = new double[n];
+            var rng      = new Random(9);
+            var vars     = tape.vars();
+            for (int step = 0; step != 500; ++step) {
+                for (int k = 0, m = 1 + rng.nextInt(3); k != m; ++k) {
+                    int    i = rng.nextInt(3);
+                    double v = rng.nextInt(4) == 0 ? at[i] : 0.5 + rng.nextDouble(); // sometimes the same value
+                    at[i] = v;
+                    if (rng.nextBoolean()) inc.set(i, v);
+                    else inc.set(vars[i], v);
+                }
+                ref.eval(at, expected);
+                if (step % 3 == 0) {
+                    assertBits(expected[0], inc.get(out));
+                    for (int i = 0; i != n; ++i) assertBits(expected[i], out[i]);
+                } else {
+                    int i = rng.nextInt(n); // a single output brings all of them up to date
+                    assertBits(expected[i], inc.get(i));
+                    assertBits(expected[0], inc.get());
+                }
+            }
+            inc.set(0.75, 1.0, 1.25);
+            assertBits(ref.eval(0.75, 1.0, 1.25), inc.get());
+        }
+    }
+
+    @Test
+    void stepsStayWithinTheCone() {
+        var dag = new DAG();
+        var x   = dag.x();
+        var y   = dag.y();
+        Op  g   = y;
+        for (int i = 0; i != 200; ++i) g = g.sin().add(y); // a long chain only y reaches
+        var f   = x.mul(x).exp().add(g);
+        var inc = f.incremental(2.0, 0.5);
+        var ref = f.compile();
+        assertTrue(inc.tape().numInstrs() > 400);
+
+        // x only reaches the Mul, the Exp, and the final Add
+        inc.set(0, 3.0);
+        assertBits(ref.eval(3.0, 0.5), inc.get());
+        assertEquals(3, inc.numSteps());
+
+        // -3 * -3 = 3 * 3, so nothing after the Mul is recomputed
+        inc.set(0, -3.0);
+        assertBits(ref.eval(-3.0, 0.5), inc.get());
+        assertEquals(4, inc.numSteps());
+
+        // the same value again costs nothing, not even a get()
+        inc.set(0, -3.0);
+        inc.set(1, 0.5);
+        assertBits(ref.eval(-3.0, 0.5), inc.get());
+        assertEquals(4, inc.numSteps());
+
+        // y reaches all but the Mul and the Exp
+        inc.set(1, 0.25);
+        assertBits(ref.eval(-3.0, 0.25), inc.get());
+        assertEquals(4 + inc.tape().numInstrs() - 2, inc.numSteps());
+    }
+}
@@ -0,0 +1,57 @@
+package mll;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class JacobianTest {
+    @Test
+    void sparsePattern() {
+        var dag = new DAG();
+        var x   = dag.x();
+        var y   = dag.y();
+        var z   = dag.z();
+        var jac = Op.jacobian(x.mul(y), z.sin(), x.add(z));
+        assertArrayEquals(new int[] { 0, 2, 3, 5 }, jac.rowPtr());
+        assertArrayEquals(new int[] { 0, 1, 2, 0, 2 }, jac.colIdx());
+        assertArrayEquals(new double[] { 3, 2, Math.cos(0.5), 1, 1 }, jac.eval(2, 3, 0.5), 1e-15);
+    }
+
+    @Test
+    void noRoots() {
+        var e = assertThrows(IllegalArgumentException.class, () -> Op.jacobian());
+        assertEquals("no roots", e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> Op.jacobian(new Op[0], new Var[] { new DAG().x() }));
+    }
+
+    @Test
+    void varsOnlyInLaterRootsWithConstantPartials() {
+        var dag = new DAG();
+        var x   = dag.x();
+        var y   = dag.y();
+        var z   = dag.z();
+        // z only reaches the second root, and its partial there is 1 - so the kernel doesn't read it at all
+        var jac = Op.jacobian(x.mul(y), y.add(z));
+        assertEquals(3, jac.numCols());
+        assertArrayEquals(new double[] { 2, 1, 1, 1 }, jac.eval(1, 2, 3));
+
+        var lin = Op.jacobian(x, y.add(z));
+        assertArrayEquals(new double[] { 1, 1, 1 }, lin.eval(1, 2, 3));
+        assertThrows(IllegalArgumentException.class, () -> lin.eval(1, 2));
+    }
+
+    @Test
+    void columnOrderAndParams() {
+        var dag = new DAG();
+        var x   = dag.x();
+        var y   = dag.y();
+        var z   = dag.z();
+        // columns z, x - not sorted by name - and y is a parameter
+        var jac = Op.jacobian(new Op[] { x.mul(y), z.mul(z).add(y) }, new Var[] { z, x });
+        assertArrayEquals(new Var[] { y }, jac.params());
+        assertArrayEquals(new int[] { 1, 0 }, jac.colIdx());
+        assertArrayEquals(new double[] { 5, 6 }, jac.eval(3, 2, 5)); // z = 3, x = 2, y = 5
+    }
+}
@@ -0,0 +1,82 @@
+package mll;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class JitTest {
+    private static final int WIDE = 20_000; // inputs of one Sum - far more code than fits into a single method
+
+    private static Var[] vars(DAG dag, int n) {
+        var res = new Var[n];
+        for (int i = 0; i != n; ++i) res[i] = dag.var(String.format("v%05d", i)); // so freeVars() keeps this order
+        return res;
+    }
+
+    private static double[] point(int n) {
+        var rng = new Random(42);
+        var res = new double[n];
+        for (int i = 0; i != n; ++i) res[i] = rng.nextDouble() * 2 - 1;
+        return res;
+    }
+
+    @Test
+    void smallExpression() {
+        var dag = new DAG();
+        var x   = dag.x();
+        var y   = dag.y();
+        var f   = x.mul(y).sin().add(x.div(y.exp())).pow(dag.lit2());
+        var at  = new double[] { 0.3, -1.25 };
+        assertEquals(f.eval(at), f.jit().apply(at));
+    }
+
+    @Test
+    void wideSumIsSplitAcrossSegments() {
+        var dag  = new DAG();
+        var vars = vars(dag, WIDE);
+        var ops  = new Op[WIDE];
+        for (int i = 0; i != WIDE; ++i) ops[i] = vars[i].sin();
+        var sum = Sum.c(ops);
+        var at  = point(WIDE);
+        // bit-identical, so the partial reductions must split just like the interpreter does
+        assertEquals(Double.doubleToLongBits(sum.eval(at)), Double.doubleToLongBits(sum.jit().apply(at)));
+
+        var prod = Product.c(vars);
+        assertEquals(Double.doubleToLongBits(prod.eval(at)), Double.doubleToLongBits(prod.jit().apply(at)));
+    }
+
+    @Test
+    void manyOutputsAreSplitAcrossSegments() {
+        var dag  = new DAG();
+        var vars = vars(dag, WIDE);
+        var ops  = new Op[WIDE];
+        for (int i = 0; i != WIDE; ++i) ops[i] = vars[i].mul(vars[i]);
+        var f    = Sum.c(ops);
+        var grad = f.backwards(vars);
+        var at   = point(WIDE);
+
+        var expected = new double[WIDE];
+        double value = f.gradient(at, expected);
+        var out      = new double[WIDE + 1];
+        var kernel   = grad.jit();
+        kernel.apply(at, out);
+        assertEquals(value, out[0]);
+        for (int i = 0; i != WIDE; ++i) assertEquals(expected[i], out[i + 1], 1e-12);
+        assertEquals(value, kernel.apply(at));
+    }
+
+    @Test
+    void manyDistinctLits() {
+        // more Lits than constant pool entries - and register indices beyond a short
+        var dag   = new DAG();
+        var x     = dag.x();
+        var y     = dag.y();
+        var terms = new Op[40_000];
+        for (int i = 0; i != terms.length; ++i) terms[i] = (i % 2 == 0 ? x : y).add(dag.lit(i + 0.5)).sin();
+        var sum = Sum.c(terms);
+        var at  = new double[] { 0.75, -1.5 };
+        assertEquals(Double.doubleToLongBits(sum.eval(at)), Double.doubleToLongBits(sum.jit().apply(at)));
+    }
+}
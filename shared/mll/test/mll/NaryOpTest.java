@@ -0,0 +1,114 @@
+package mll;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class NaryOpTest {
+    @Test
+    void sumsAreHashConsedRegardlessOfConstruction() {
+        var dag = new DAG();
+        var a   = dag.var("a");
+        var b   = dag.var("b");
+        var c   = dag.var("c");
+        var sum = Sum.c(a, Sum.c(b, c));
+        assertInstanceOf(Sum.class, sum);
+        assertSame(sum, Sum.c(c, b, a));
+        assertSame(sum, Sum.c(a.add(b), c));
+        assertSame(sum, Sum.c(c.add(a), b));
+        assertSame(sum, Sum.c(a, b.sub(c.neg())));
+
+        var prod = Product.c(a, Product.c(b, c));
+        assertInstanceOf(Product.class, prod);
+        assertSame(prod, Product.c(c, b, a));
+        assertSame(prod, Product.c(a.mul(b), c));
+        assertSame(prod, Product.c(c.mul(a), b));
+    }
+
+    @Test
+    void weightsAreMerged() {
+        var dag = new DAG();
+        var x   = dag.x();
+        var y   = dag.y();
+        var z   = dag.z();
+        var two = dag.lit2();
+        assertSame(Mul.c(two, x), Sum.c(x, two.mul(x), x.neg())); // x + 2*x - x
+        assertSame(y, Sum.c(x, y, x.neg()));
+        assertSame(dag.lit(3), Sum.c(dag.lit1(), x, dag.lit2(), x.neg()));
+
+        // negative terms are subtracted once
+        var diff = Sum.c(x, y.neg(), z, two.mul(y).neg());
+        assertInstanceOf(Sub.class, diff);
+        assertEquals(1 - 3 * 2 + 3, diff.eval(1, 2, 3));
+
+        // x * y * x^2 = x^3 * y
+        assertSame(Mul.c(x.pow(dag.lit(3)), y), Product.c(x, y, x.pow(two)));
+        assertSame(y, Product.c(x, y, x.pow(dag.lit(-1))));
+        assertSame(dag.lit0(), Product.c(x, dag.lit0(), y));
+        assertSame(Product.c(dag.lit(-6), x, y, z), Product.c(two, x.neg(), y, dag.lit(3), z));
+    }
+
+    @Test
+    void reduceIsPairwise() {
+        var dag  = new DAG();
+        var vars = new Var[5];
+        for (int i = 0; i != vars.length; ++i) vars[i] = dag.var("v" + i);
+        var sum  = Sum.c(vars);
+        var prod = Product.c(vars);
+
+        var rng = new Random(3);
+        var v   = new double[vars.length];
+        boolean differs = false;
+        for (int k = 0; k != 100; ++k) {
+            for (int i = 0; i != v.length; ++i) v[i] = (rng.nextDouble() - 0.5) * Math.pow(10, rng.nextInt(16));
+            // [0, 5) splits into [0, 2) and [2, 5), the latter into [2, 3) and [3, 5)
+            double s = (v[0] + v[1]) + (v[2] + (v[3] + v[4]));
+            double p = (v[0] * v[1]) * (v[2] * (v[3] * v[4]));
+            assertEquals(s, NaryOp.reduce(v, 0, v.length, Double::sum));
+            assertEquals(s, sum.eval(v));
+            assertEquals(s, sum.compile().eval(v));
+            assertEquals(s, sum.jit().apply(v));
+            assertEquals(p, prod.eval(v));
+            assertEquals(p, prod.compile().eval(v));
+            assertEquals(p, prod.jit().apply(v));
+            differs |= s != (((v[0] + v[1]) + v[2]) + v[3]) + v[4];
+        }
+        assertTrue(differs); // or this wouldn't tell a left fold from the pairwise one
+    }
+
+    @Test
+    void productDiffMatchesFiniteDifferences() {
+        var dag  = new DAG();
+        var x    = dag.x();
+        var y    = dag.y();
+        var z    = dag.z();
+        var f    = Product.c(x, y.sin(), z.exp(), x.add(y));
+        var tape = f.compile();
+        var sym  = f.backwards().compile();
+        var out  = new double[4];
+
+        var points = new double[][] {
+            { 0.7, 1.1, 0.3 },
+            { 0.0, 1.1, 0.3 }, // one factor 0 - the partials are not f / xi
+            { 0.0, 0.0, 0.3 }, // two of them
+            { 0.5, -0.5, 0.3 }, // x + y = 0
+        };
+        for (var at : points) {
+            sym.eval(at, out);
+            assertEquals(tape.eval(at), out[0]);
+            for (int i = 0; i != 3; ++i) {
+                double expected = TapeTest.difference(tape, at, TapeTest.unit(3, i));
+                assertEquals(expected, out[i + 1], 1e-6);
+            }
+        }
+
+        // at x = 0 the partial w.r.t. x is exactly the product of the other factors
+        sym.eval(new double[] { 0.0, 1.1, 0.3 }, out);
+        assertEquals(Math.sin(1.1) * Math.exp(0.3) * 1.1, out[1], 1e-15);
+    }
+}
@@ -0,0 +1,129 @@
+package mll;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.jupiter.api.Test;
+
+class OpTest {
+    @Test
+    void fingerprintIgnoresIDs() {
+        var dag1 = new DAG();
+        var f1   = dag1.x().sin().mul(dag1.y()).add(dag1.lit(3));
+        var dag2 = new DAG();
+        var y2   = dag2.y(); // y first, so every ID differs
+        var f2   = dag2.lit(3).add(y2.mul(dag2.x().sin()));
+        assertEquals(f1.fingerprint(), f2.fingerprint());
+        assertNotEquals(f1.fingerprint(), f1.add(dag1.x()).fingerprint());
+    }
+
+    @Test
+    void fingerprintKeepsReductionOrder() {
+        var dag1 = new DAG();
+        var a1   = dag1.var("a");
+        var b1   = dag1.var("b");
+        var c1   = dag1.var("c");
+        var dag2 = new DAG();
+        var c2   = dag2.var("c");
+        var b2   = dag2.var("b");
+        var a2   = dag2.var("a");
+
+        // the inputs of a Sum or Product end up in another order, so they are reduced - and rounded - differently
+        var s1 = Sum.c(a1, b1, c1);
+        var s2 = Sum.c(a2, b2, c2);
+        assertNotEquals(s1.inputs()[0].toString(), s2.inputs()[0].toString());
+        assertNotEquals(s1.fingerprint(), s2.fingerprint());
+        assertNotEquals(Product.c(a1, b1, c1).fingerprint(), Product.c(a2, b2, c2).fingerprint());
+
+        // whereas a single addition or multiplication rounds the same either way
+        assertEquals(a1.add(b1).fingerprint(), a2.add(b2).fingerprint());
+        assertEquals(a1.mul(c1).fingerprint(), a2.mul(c2).fingerprint());
+    }
+
+    /// Input @p index of @p user.
+    private record Use(Op user, int index) {}
+
+    /// The adjoint of @p op as the recursive backwards() of old built it: the Sum over all users of their adjoint times
+    /// the local partial. No activity analysis - every path is followed.
+    private static Op recursive(Op op, Op root, HashMap<Op, ArrayList<Use>> users, HashMap<Op, Op> memo) {
+        if (op == root) return op.lit1();
+        var res = memo.get(op);
+        if (res != null) return res;
+        res = op.lit0();
+        for (var use : users.getOrDefault(op, new ArrayList<>()))
+            res = res.add(recursive(use.user(), root, users, memo).mul(use.user().diff(use.index())));
+        memo.put(op, res);
+        return res;
+    }
+
+    private static Op[] recursive(Op root, Var... wrt) {
+        var users = new HashMap<Op, ArrayList<Use>>();
+        for (var op : root.topo())
+            for (int i = 0, e = op.numInputs(); i != e; ++i)
+                users.computeIfAbsent(op.input(i), k -> new ArrayList<>()).add(new Use(op, i));
+        var memo = new HashMap<Op, Op>();
+        var res  = new Op[wrt.length];
+        for (int i = 0; i != wrt.length; ++i) res[i] = recursive(wrt[i], root, users, memo);
+        return res;
+    }
+
+    @Test
+    void backwardsMatchesRecursiveSweep() {
+        var dag = new DAG();
+        var f   = TapeTest.everyKind(dag);
+        var x   = dag.x();
+        var z   = dag.z();
+        for (var wrt : new Var[][] { { x, dag.y(), z }, { z, x }, { z } }) {
+            var grad = f.backwards(wrt).compile();
+            var ref  = recursive(f, wrt);
+            var out  = new double[wrt.length + 1];
+            for (var at : TapeTest.points(3)) {
+                grad.eval(at, out);
+                for (int i = 0; i != wrt.length; ++i) {
+                    double expected = ref[i].eval(at);
+                    assertEquals(expected, out[i + 1], 1e-12 * Math.max(1, Math.abs(expected)));
+                }
+            }
+        }
+    }
+
+    @Test
+    void backwardsPrunesInactiveSubgraphs() {
+        // g only depends on y, so backwards(x) must not differentiate anything in it
+        var dag1 = new DAG();
+        var x1   = dag1.x();
+        var f1   = x1.sin().mul(x1.exp());
+        int size = dag1.size();
+        f1.backwards(x1);
+        int grown = dag1.size() - size;
+
+        var dag2 = new DAG();
+        var x2   = dag2.x();
+        var y2   = dag2.y();
+        var g    = y2.exp().cos().log().pow(y2).sin();
+        var f2   = Sum.c(x2.sin().mul(x2.exp()), g, g.mul(y2).cos());
+        size = dag2.size();
+        var grad = f2.backwards(x2);
+        // just as many new Ops as without g: nothing in it gets an adjoint
+        assertEquals(grown, dag2.size() - size);
+        assertEquals(f2.backwards(x2, y2).input(1), grad.input(1));
+    }
+
+    @Test
+    void backwardsOfDeepChain() {
+        var dag = new DAG();
+        var x   = dag.x();
+        Op  f   = x;
+        for (int i = 0; i != 150_000; ++i) f = f.sin().add(x.mul(dag.lit(1e-3)));
+        var grad     = f.backwards(x).compile(); // no StackOverflowError, neither here nor compiling
+        var expected = new double[1];
+        var out      = new double[2];
+        double value = f.compile().gradient(new double[] { 0.7 }, expected);
+        grad.eval(new double[] { 0.7 }, out);
+        assertEquals(value, out[0]);
+        assertEquals(expected[0], out[1], 1e-12);
+    }
+}
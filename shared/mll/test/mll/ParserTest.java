@@ -0,0 +1,109 @@
+package mll;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import mll.Tok.Tag;
+
+import org.junit.jupiter.api.Test;
+
+class ParserTest {
+    private static Op parse(DAG dag, String src) { return Parser.parse(dag, "t", src); }
+
+    private static String error(String src) {
+        return assertThrows(IllegalArgumentException.class, () -> parse(new DAG(), src)).getMessage();
+    }
+
+    private static Lexer lexer(String src) {
+        return new Lexer("t", ByteBuffer.wrap(src.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static double lit(String src) {
+        var tok = lexer(src).lex();
+        assertEquals(Tag.M_lit, tok.tag(), src);
+        return tok.lit();
+    }
+
+    @Test
+    void precedence() {
+        var dag = new DAG();
+        var x   = dag.x();
+        var y   = dag.y();
+        var two = dag.lit2();
+        assertSame(x.pow(two).neg(), parse(dag, "-x^2"));
+        assertSame(x.sin().pow(two), parse(dag, "sin x^2"));
+        assertSame(x.pow(y.pow(two)), parse(dag, "x^y^2")); // right-associative
+        assertSame(x.sub(y).sub(two), parse(dag, "x - y - 2")); // the others are left-associative
+        assertSame(x.div(y).div(two), parse(dag, "x / y / 2"));
+        assertSame(x.add(y.mul(two)), parse(dag, "x + y * 2"));
+        assertSame(x.neg().mul(y), parse(dag, "-x * y"));
+        assertSame(x.add(y).exp().log(), parse(dag, "log exp (x + y)"));
+    }
+
+    @Test
+    void lets() {
+        var dag = new DAG();
+        var x   = dag.x();
+        assertSame(x.sin().mul(x.sin()).add(x), parse(dag, "let s = sin x; let s = s * s; s + x;"));
+        assertSame(dag.var("s"), parse(dag, "s # no let, so a Var"));
+    }
+
+    @Test
+    void errorsCarryTheirLoc() {
+        assertEquals("t:1:3: invalid character '$'", error("x $ y"));
+        assertEquals("t:2:1: invalid byte 0xc3", error("x +\n\u00e9")); // the first byte of its UTF-8 encoding
+        assertEquals("t:1:4: expected expression but got '<end of file>'", error("x +"));
+        assertEquals("t:1:7: expected ')' to close parenthesized expression but got '<end of file>'", error("(x + y"));
+        assertEquals("t:1:5: expected '<identifier>' after 'let' but got '='", error("let = x; x"));
+        assertEquals("t:1:11: expected ';' after let-binding but got 'a'", error("let a = x a"));
+        assertEquals("t:2:3: expected '<end of file>' after program but got 'y'", error("# x\nx y"));
+    }
+
+    @Test
+    void exponentNeedsDigits() {
+        // `2e` is the Lit 2 followed by the Var e, not a malformed exponent
+        var lexer = lexer("2e 2E3 2e-x 1.5e+2");
+        var tok   = lexer.lex();
+        assertEquals(2.0, tok.lit());
+        tok = lexer.lex();
+        assertEquals(Tag.M_id, tok.tag());
+        assertEquals("e", tok.id());
+        assertEquals(2000.0, lexer.lex().lit());
+        assertEquals(2.0, lexer.lex().lit());
+        assertEquals("e", lexer.lex().id());
+        assertEquals(Tag.O_sub, lexer.lex().tag());
+        assertEquals("x", lexer.lex().id());
+        assertEquals(150.0, lexer.lex().lit());
+        assertEquals(Tag.M_eof, lexer.lex().tag());
+
+        var dag = new DAG();
+        assertSame(dag.lit2().mul(dag.var("e")), parse(dag, "2*e"));
+        assertEquals("t:1:2: expected '<end of file>' after program but got 'e'", error("2e"));
+    }
+
+    @Test
+    void literalsMatchParseDouble() {
+        for (var src : new String[] { "0", "0.1", ".5", "00012.50", "0.000", "123456789012345", "1234567890123456",
+                "9007199254740993", "123456789012345678901", "0.1000000000000000055511151231257827", "1e22", "1e23",
+                "1e300", "1e-300", "4.9e-324", "1e-400", "1e400", "1e99999", "3.14159265358979323846", "17e-22" })
+            assertEquals(Double.doubleToLongBits(Double.parseDouble(src)), Double.doubleToLongBits(lit(src)), src);
+
+        var rng = new Random(23);
+        for (int k = 0; k != 100_000; ++k) {
+            var src = new StringBuilder();
+            for (int i = 0, n = 1 + rng.nextInt(20); i != n; ++i) src.append((char) ('0' + rng.nextInt(10)));
+            if (rng.nextBoolean()) {
+                src.append('.');
+                for (int i = 0, n = rng.nextInt(20); i != n; ++i) src.append((char) ('0' + rng.nextInt(10)));
+            }
+            if (rng.nextBoolean()) src.append('e').append(rng.nextInt(61) - 30);
+            var s = src.toString();
+            assertEquals(Double.doubleToLongBits(Double.parseDouble(s)), Double.doubleToLongBits(lit(s)), s);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package mll;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.EnumSet;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class TapeTest {
+    private static final double H = 1e-6; // step of the central differences
+
+    /// A function of x, y, and z built from every Kind but Grad; defined for all of them in `[0.5, 1.5]`.
+    static Op everyKind(DAG dag) {
+        var x = dag.x();
+        var y = dag.y();
+        var z = dag.z();
+        var a = Fma.c(x, y, z.sin());
+        var b = Product.c(x.exp(), y.cos(), z.add(x));
+        var c = x.div(y.add(dag.lit2())).log();
+        var d = y.pow(x).sub(z.pow(dag.lit(3))).sin();
+        var e = x.mul(z).neg().exp();
+        return Sum.c(a, b, c, d, e);
+    }
+
+    /// Random points in `[0.5, 1.5]^n`.
+    static double[][] points(int n) {
+        var rng = new Random(7);
+        var res = new double[20][n];
+        for (var at : res)
+            for (int i = 0; i != n; ++i) at[i] = 0.5 + rng.nextDouble();
+        return res;
+    }
+
+    /// Central difference of @p tape along @p dir at @p at.
+    static double difference(Tape tape, double[] at, double[] dir) {
+        var fwd = at.clone();
+        var bwd = at.clone();
+        for (int i = 0, e = at.length; i != e; ++i) {
+            fwd[i] += H * dir[i];
+            bwd[i] -= H * dir[i];
+        }
+        return (tape.eval(fwd) - tape.eval(bwd)) / (2 * H);
+    }
+
+    static double[] unit(int n, int i) {
+        var res = new double[n];
+        res[i] = 1.0;
+        return res;
+    }
+
+    @Test
+    void everyKindIsCovered() {
+        var kinds = EnumSet.noneOf(Kind.class);
+        for (var op : everyKind(new DAG()).topo()) kinds.add(op.kind());
+        assertEquals(EnumSet.complementOf(EnumSet.of(Kind.Grad)), kinds);
+    }
+
+    @Test
+    void gradientMatchesBackwards() {
+        var f    = everyKind(new DAG());
+        var tape = f.compile();
+        var sym  = f.backwards().compile();
+        var grad = new double[3];
+        var out  = new double[4];
+        for (var at : points(3)) {
+            double value = tape.gradient(at, grad);
+            sym.eval(at, out);
+            assertEquals(f.eval(at), value);
+            assertEquals(out[0], value);
+            for (int i = 0; i != 3; ++i) assertEquals(out[i + 1], grad[i], 1e-12 * Math.max(1, Math.abs(grad[i])));
+        }
+    }
+
+    @Test
+    void gradientMatchesFiniteDifferences() {
+        var f    = everyKind(new DAG());
+        var tape = f.compile();
+        var grad = new double[3];
+        for (var at : points(3)) {
+            tape.gradient(at, grad);
+            for (int i = 0; i != 3; ++i) assertEquals(difference(tape, at, unit(3, i)), grad[i], 1e-6);
+        }
+    }
+
+    @Test
+    void gradientOfConstantsAndUnusedBranches() {
+        var dag = new DAG();
+        var x   = dag.x();
+        var y   = dag.y();
+        // y only enters through a factor of 0 at y = 0 - its adjoint must still be exact, not skipped
+        var f    = x.mul(x).add(y.mul(y).mul(x));
+        var grad = new double[2];
+        assertEquals(9.0, f.compile().gradient(new double[] { 3, 0 }, grad));
+        assertEquals(6.0, grad[0]);
+        assertEquals(0.0, grad[1]);
+    }
+
+    @Test
+    void jvpMatchesGradientTimesSeed() {
+        var f    = everyKind(new DAG());
+        var tape = f.compile();
+        var rng  = new Random(11);
+        var dirs = new double[5][3]; // unit seeds and random ones, all pushed in one batched sweep
+        for (int j = 0; j != 3; ++j) dirs[j] = unit(3, j);
+        for (int j = 3; j != 5; ++j)
+            for (int i = 0; i != 3; ++i) dirs[j][i] = rng.nextDouble() * 2 - 1;
+
+        var grad = new double[3];
+        var tans = new double[dirs.length][1];
+        var one  = new double[1][1];
+        for (var at : points(3)) {
+            double value = tape.gradient(at, grad);
+            assertEquals(value, tape.jvp(at, dirs, null, tans));
+            for (int j = 0; j != dirs.length; ++j) {
+                double dot = 0.0;
+                for (int i = 0; i != 3; ++i) dot += grad[i] * dirs[j][i];
+                assertEquals(dot, tans[j][0], 1e-12 * Math.max(1, Math.abs(dot)));
+
+                // a single direction gives the same as within the batch
+                tape.jvp(at, new double[][] { dirs[j] }, null, one);
+                assertEquals(tans[j][0], one[0][0]);
+            }
+        }
+        assertEquals(tape.eval(points(3)[0]), f.jvp(points(3)[0], dirs, tans));
+    }
+
+    @Test
+    void jvpOfGradRootIsHessianTimesSeed() {
+        // the tangents of the partials are Hessian-vector products - compare with differences of the gradient
+        var f    = everyKind(new DAG());
+        var tape = f.compile();
+        var grad = f.backwards().compile();
+        var dirs = new double[][] { unit(3, 0), { 0.5, -1, 0.25 } };
+        var tans = new double[dirs.length][4];
+        var out  = new double[4];
+        var fwd  = new double[3];
+        var bwd  = new double[3];
+        for (var at : points(3)) {
+            grad.jvp(at, dirs, out, tans);
+            for (int j = 0; j != dirs.length; ++j) {
+                var a = at.clone();
+                var b = at.clone();
+                for (int i = 0; i != 3; ++i) {
+                    a[i] += H * dirs[j][i];
+                    b[i] -= H * dirs[j][i];
+                }
+                tape.gradient(a, fwd);
+                tape.gradient(b, bwd);
+                assertEquals(difference(tape, at, dirs[j]), tans[j][0], 1e-6);
+                for (int i = 0; i != 3; ++i) assertEquals((fwd[i] - bwd[i]) / (2 * H), tans[j][i + 1], 1e-5);
+            }
+        }
+    }
+}